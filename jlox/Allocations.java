@@ -0,0 +1,93 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+class Allocations {
+    /* What has been allocated of one kind of Lox value: the instances of
+     one class, strings built by '+', closures, captured variables' cells,
+     or value stack growth. Only counted with -Djlox.memory or
+     -Djlox.histogram. The sizes are estimates for a 64-bit VM with
+     compressed references, close enough to tell which kind is eating the
+     heap. */
+    // Every kind, for print(); first, as the ones below add themselves to it.
+    private static final Queue<Allocations> all = new ConcurrentLinkedQueue<>();
+
+    static final Allocations STRINGS = new Allocations("(strings)");
+    static final Allocations CLOSURES = new Allocations("(closures)");
+    static final Allocations CELLS = new Allocations("(cells)");
+    static final Allocations FRAMES = new Allocations("(frames)");
+
+    static final long CELL = 16;
+
+    final String name;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    Allocations(String name) {
+        this.name = name;
+        all.add(this);
+    }
+
+    void add(long size) {
+        count.increment();
+        bytes.add(size);
+    }
+
+    static long array(int length) {
+        return align(16 + 4L * length);
+    }
+
+    static long string(int length) {
+        // The String and its byte[], taking the characters as Latin-1.
+        return 24 + align(16 + length);
+    }
+
+    static long closure(int upvalues) {
+        // The LoxFunction and its array of captured cells.
+        return 32 + array(upvalues);
+    }
+
+    static long instance(int fields) {
+        // The LoxInstance, its HashMap, the map's table and a node per field.
+        if (fields == 0) return 24 + 48;
+        int needed = (int)Math.ceil(fields / 0.75);
+        int capacity = Math.max(16, Integer.highestOneBit(needed - 1) << 1);
+        return 24 + 48 + array(capacity) + 32L * fields;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7;
+    }
+
+    static void print() {
+        /* Dumps counts and bytes by kind to stderr, largest first, for
+         -Djlox.histogram=true runs. Classes declared more than once (in a
+         function or loop) are summed under their name. */
+        Map<String, long[]> totals = new LinkedHashMap<>();
+        for (Allocations kind : all) {
+            long[] total = totals.computeIfAbsent(kind.name, name -> new long[2]);
+            total[0] += kind.count.sum();
+            total[1] += kind.bytes.sum();
+        }
+
+        List<Map.Entry<String, long[]>> rows = new ArrayList<>(totals.entrySet());
+        rows.removeIf(row -> row.getValue()[0] == 0);
+        rows.sort((a, b) -> Long.compare(b.getValue()[1], a.getValue()[1]));
+
+        System.err.printf("%-24s %12s %14s%n", "kind", "count", "bytes");
+        long count = 0, bytes = 0;
+        for (Map.Entry<String, long[]> row : rows) {
+            long[] total = row.getValue();
+            System.err.printf("%-24s %12d %14d%n", row.getKey(), total[0], total[1]);
+            count += total[0];
+            bytes += total[1];
+        }
+        System.err.printf("%-24s %12d %14d%n", "total", count, bytes);
+    }
+}
@@ -0,0 +1,48 @@
+package jlox;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+class Budget {
+    /* The fuel, deadline and memory of one run (-Djlox.fuel=N,
+     -Djlox.timeout=MS, -Djlox.memory=MB), shared by the Interpreters of its
+     tasks and parallel workers. An Interpreter doesn't come here on every
+     loop iteration or call: it takes up to CHUNK ticks at a time and counts
+     them down in a plain int, so the clock is read and the shared counter
+     touched once per chunk. A thread can therefore run at most one chunk
+     past the budget. Allocations are likewise handed over once they add up
+     to BYTES. */
+    static final int CHUNK = 10_000;
+    static final long BYTES = 64 * 1024;
+
+    private final AtomicLong fuel = new AtomicLong();
+    private final AtomicLong allocated = new AtomicLong();
+    private volatile long deadline;
+
+    void reset() {
+        fuel.set(Lox.fuel);
+        allocated.set(0);
+        deadline = Lox.timeout > 0 ? System.nanoTime() + Lox.timeout * 1_000_000 : 0;
+    }
+
+    int refill(Token token) {
+        // Returns the ticks left in the next chunk, the one being spent included.
+        if (deadline != 0 && System.nanoTime() - deadline > 0) {
+            throw new RuntimeError(token, "Timed out.");
+        }
+        if (Lox.fuel == 0) return CHUNK - 1;
+
+        while (true) {
+            long left = fuel.get();
+            if (left <= 0) throw new RuntimeError(token, "Out of fuel.");
+            int chunk = (int)Math.min(CHUNK, left);
+            if (fuel.compareAndSet(left, left - chunk)) return chunk - 1;
+        }
+    }
+
+    void allocate(long bytes, Token token) {
+        // This counts what was allocated, not what is still live.
+        if (allocated.addAndGet(bytes) > Lox.memory) {
+            throw new RuntimeError(token, "Out of memory.");
+        }
+    }
+}
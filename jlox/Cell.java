@@ -0,0 +1,11 @@
+package jlox;
+
+class Cell {
+    // Heap storage for a local that outlives its frame because a closure captured it.
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+        InterpreterStats.cells.increment();
+    }
+}
@@ -0,0 +1,564 @@
+package jlox;
+
+import java.util.Arrays;
+import java.util.List;
+
+class Compiler implements Expr.Visitor<Compiler.Code>, Stmt.Visitor<Compiler.Action> {
+    /* Compiles a resolved script or function body once into a tree of Java
+     closures for -Djlox.compile=true. Each closure is made for its node:
+     the operator, how a variable is reached and whether a loop counts are
+     all settled here, so running the closures never looks at the syntax
+     tree again. Runtime errors are the same as the Interpreter's. */
+    interface Code {
+        Object run();
+    }
+
+    interface Action {
+        void run();
+    }
+
+    private final Interpreter interpreter;
+
+    Compiler(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    Action[] compile(List<Stmt> statements) {
+        Action[] actions = new Action[statements.size()];
+        for (int i = 0; i < actions.length; i++) {
+            actions[i] = compile(statements.get(i));
+        }
+        return actions;
+    }
+
+    static void run(Action[] actions) {
+        for (Action action : actions) action.run();
+    }
+
+    private Action compile(Stmt stmt) {
+        return stmt == null ? null : stmt.accept(this);
+    }
+
+    private Code compile(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    private Code[] compileArguments(List<Expr> arguments) {
+        Code[] codes = new Code[arguments.size()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = compile(arguments.get(i));
+        }
+        return codes;
+    }
+
+    private Code variable(Token name, Slot slot) {
+        Interpreter interpreter = this.interpreter;
+        if (slot == null) return () -> interpreter.globals.get(name);
+
+        int index = slot.index;
+        if (slot.upvalue) return () -> interpreter.upvalues[index].value;
+        if (slot.captured) return () -> ((Cell)interpreter.stack[interpreter.frame + index]).value;
+        return () -> interpreter.stack[interpreter.frame + index];
+    }
+
+    private static Object[] values(Code[] arguments) {
+        Object[] values = new Object[arguments.length];
+        for (int i = 0; i < values.length; i++) values[i] = arguments[i].run();
+        return values;
+    }
+
+    @Override
+    public Code visitAssignExpr(Expr.Assign expr) {
+        Interpreter interpreter = this.interpreter;
+        Code value = compile(expr.value);
+        Token name = expr.name;
+        Slot slot = expr.slot;
+        if (slot == null) {
+            return () -> {
+                Object result = value.run();
+                interpreter.globals.assign(name, result);
+                return result;
+            };
+        }
+
+        int index = slot.index;
+        if (slot.upvalue) {
+            return () -> {
+                Object result = value.run();
+                interpreter.upvalues[index].value = result;
+                return result;
+            };
+        }
+        if (slot.captured) {
+            return () -> {
+                Object result = value.run();
+                ((Cell)interpreter.stack[interpreter.frame + index]).value = result;
+                return result;
+            };
+        }
+        return () -> {
+            // The value first: running it may grow the stack.
+            Object result = value.run();
+            interpreter.stack[interpreter.frame + index] = result;
+            return result;
+        };
+    }
+
+    @Override
+    public Code visitBinaryExpr(Expr.Binary expr) {
+        Interpreter interpreter = this.interpreter;
+        Code left = compile(expr.left);
+        Code right = compile(expr.right);
+        Token operator = expr.operator;
+
+        switch (operator.type) {
+            case BANG_EQUAL:
+                return () -> !interpreter.isEqual(left.run(), right.run());
+            case EQUAL_EQUAL:
+                return () -> interpreter.isEqual(left.run(), right.run());
+            case GREATER:
+                return () -> {
+                    Object a = left.run();
+                    Object b = right.run();
+                    interpreter.checkNumberOperands(operator, a, b);
+                    return (double)a > (double)b;
+                };
+            case GREATER_EQUAL:
+                return () -> {
+                    Object a = left.run();
+                    Object b = right.run();
+                    interpreter.checkNumberOperands(operator, a, b);
+                    return (double)a >= (double)b;
+                };
+            case LESS:
+                return () -> {
+                    Object a = left.run();
+                    Object b = right.run();
+                    interpreter.checkNumberOperands(operator, a, b);
+                    return (double)a < (double)b;
+                };
+            case LESS_EQUAL:
+                return () -> {
+                    Object a = left.run();
+                    Object b = right.run();
+                    interpreter.checkNumberOperands(operator, a, b);
+                    return (double)a <= (double)b;
+                };
+            case MINUS:
+                return () -> {
+                    Object a = left.run();
+                    Object b = right.run();
+                    interpreter.checkNumberOperands(operator, a, b);
+                    return (double)a - (double)b;
+                };
+            case PLUS:
+                return () -> {
+                    Object a = left.run();
+                    Object b = right.run();
+                    if (a instanceof Double && b instanceof Double) {
+                        return (double)a + (double)b;
+                    }
+
+                    if (a instanceof String && b instanceof String) {
+                        return interpreter.concatenate((String)a, (String)b);
+                    }
+
+                    throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+                };
+            case SLASH:
+                return () -> {
+                    Object a = left.run();
+                    Object b = right.run();
+                    interpreter.checkNumberOperands(operator, a, b);
+                    return (double)a / (double)b;
+                };
+            default:
+                return () -> {
+                    Object a = left.run();
+                    Object b = right.run();
+                    interpreter.checkNumberOperands(operator, a, b);
+                    return (double)a * (double)b;
+                };
+        }
+    }
+
+    @Override
+    public Code visitCallExpr(Expr.Call expr) {
+        Interpreter interpreter = this.interpreter;
+        Code callee = compile(expr.callee);
+        Code[] arguments = compileArguments(expr.arguments);
+        Token paren = expr.paren;
+        if (Lox.callSites) {
+            LoxCallSite site = new LoxCallSite(paren);
+            return () -> site.call(callee.run(), interpreter, Arrays.asList(values(arguments)));
+        }
+
+        // One closure per argument count, so small calls need no argument array.
+        switch (arguments.length) {
+            case 0:
+                return () -> {
+                    Object function = callee.run();
+                    try {
+                        return interpreter.checkCall(paren, function, 0).call0(interpreter);
+                    } catch (NativeError error) {
+                        throw error.at(paren);
+                    } catch (StackOverflowError error) {
+                        throw Interpreter.stackOverflow(paren);
+                    }
+                };
+            case 1: {
+                Code first = arguments[0];
+                return () -> {
+                    Object function = callee.run();
+                    Object a = first.run();
+                    try {
+                        return interpreter.checkCall(paren, function, 1).call1(interpreter, a);
+                    } catch (NativeError error) {
+                        throw error.at(paren);
+                    } catch (StackOverflowError error) {
+                        throw Interpreter.stackOverflow(paren);
+                    }
+                };
+            }
+            case 2: {
+                Code first = arguments[0];
+                Code second = arguments[1];
+                return () -> {
+                    Object function = callee.run();
+                    Object a = first.run();
+                    Object b = second.run();
+                    try {
+                        return interpreter.checkCall(paren, function, 2).call2(interpreter, a, b);
+                    } catch (NativeError error) {
+                        throw error.at(paren);
+                    } catch (StackOverflowError error) {
+                        throw Interpreter.stackOverflow(paren);
+                    }
+                };
+            }
+            case 3: {
+                Code first = arguments[0];
+                Code second = arguments[1];
+                Code third = arguments[2];
+                return () -> {
+                    Object function = callee.run();
+                    Object a = first.run();
+                    Object b = second.run();
+                    Object c = third.run();
+                    try {
+                        return interpreter.checkCall(paren, function, 3).call3(interpreter, a, b, c);
+                    } catch (NativeError error) {
+                        throw error.at(paren);
+                    } catch (StackOverflowError error) {
+                        throw Interpreter.stackOverflow(paren);
+                    }
+                };
+            }
+            default:
+                return () -> {
+                    Object function = callee.run();
+                    Object[] values = values(arguments);
+                    try {
+                        return interpreter.checkCall(paren, function, values.length)
+                            .call(interpreter, values);
+                    } catch (NativeError error) {
+                        throw error.at(paren);
+                    } catch (StackOverflowError error) {
+                        throw Interpreter.stackOverflow(paren);
+                    }
+                };
+        }
+    }
+
+    @Override
+    public Code visitGetExpr(Expr.Get expr) {
+        Code object = compile(expr.object);
+        Token name = expr.name;
+        return () -> {
+            Object instance = object.run();
+            if (instance instanceof LoxInstance) {
+                return ((LoxInstance)instance).get(name);
+            }
+
+            throw new RuntimeError(name, "Only instances have properties.");
+        };
+    }
+
+    @Override
+    public Code visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public Code visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        return () -> value;
+    }
+
+    @Override
+    public Code visitLogicalExpr(Expr.Logical expr) {
+        Interpreter interpreter = this.interpreter;
+        Code left = compile(expr.left);
+        Code right = compile(expr.right);
+        if (expr.operator.type == TokenType.OR) {
+            return () -> {
+                Object value = left.run();
+                return interpreter.isTruthy(value) ? value : right.run();
+            };
+        }
+        return () -> {
+            Object value = left.run();
+            return !interpreter.isTruthy(value) ? value : right.run();
+        };
+    }
+
+    @Override
+    public Code visitSetExpr(Expr.Set expr) {
+        Code object = compile(expr.object);
+        Code value = compile(expr.value);
+        Token name = expr.name;
+        return () -> {
+            Object instance = object.run();
+            if (!(instance instanceof LoxInstance)) {
+                throw new RuntimeError(name, "Only instances have fields.");
+            }
+
+            Object result = value.run();
+            ((LoxInstance)instance).set(name, result);
+            return result;
+        };
+    }
+
+    @Override
+    public Code visitSuperExpr(Expr.Super expr) {
+        // Binding a superclass method is rare enough to leave to the tree walk.
+        Interpreter interpreter = this.interpreter;
+        return () -> interpreter.evaluate(expr);
+    }
+
+    @Override
+    public Code visitThisExpr(Expr.This expr) {
+        return variable(expr.keyword, expr.slot);
+    }
+
+    @Override
+    public Code visitUnaryExpr(Expr.Unary expr) {
+        Interpreter interpreter = this.interpreter;
+        Code right = compile(expr.right);
+        Token operator = expr.operator;
+        if (operator.type == TokenType.BANG) {
+            return () -> !interpreter.isTruthy(right.run());
+        }
+        return () -> {
+            Object value = right.run();
+            interpreter.checkNumberOperand(operator, value);
+            return -(double)value;
+        };
+    }
+
+    @Override
+    public Code visitVariableExpr(Expr.Variable expr) {
+        return variable(expr.name, expr.slot);
+    }
+
+    @Override
+    public Action visitBlockStmt(Stmt.Block stmt) {
+        Action[] statements = compile(stmt.statements);
+        return () -> run(statements);
+    }
+
+    @Override
+    public Action visitClassStmt(Stmt.Class stmt) {
+        // Declarations run once per closure, so they stay on the tree walk.
+        Interpreter interpreter = this.interpreter;
+        return () -> interpreter.execute(stmt);
+    }
+
+    @Override
+    public Action visitExpressionStmt(Stmt.Expression stmt) {
+        Code expression = compile(stmt.expression);
+        return () -> expression.run();
+    }
+
+    @Override
+    public Action visitForStmt(Stmt.For stmt) {
+        Interpreter interpreter = this.interpreter;
+        Action initializer = compile(stmt.initializer);
+        Code condition = compile(stmt.condition);
+        Code increment = compile(stmt.increment);
+        Action body = compile(stmt.body);
+        CountedLoop loop = interpreter.countedLoop(stmt);
+
+        Action general = () -> {
+            while (condition == null || interpreter.isTruthy(condition.run())) {
+                if (Lox.metered) interpreter.tick(stmt.keyword);
+                body.run();
+                if (increment != null) increment.run();
+            }
+        };
+        if (loop == null) {
+            return () -> {
+                if (initializer != null) initializer.run();
+                general.run();
+            };
+        }
+
+        // The same fast path and fallbacks as Interpreter.executeCounted().
+        Code limit = compile(((Expr.Binary)stmt.condition).right);
+        Token operator = ((Expr.Binary)stmt.condition).operator;
+        return () -> {
+            initializer.run();
+            if (!(interpreter.read(loop.counter) instanceof Double)) {
+                general.run();
+                return;
+            }
+
+            double i = (double)interpreter.read(loop.counter);
+            while (true) {
+                Object n = limit.run();
+                interpreter.checkNumberOperands(operator, i, n);
+
+                boolean running;
+                switch (loop.comparison) {
+                    case LESS: running = i < (double)n; break;
+                    case LESS_EQUAL: running = i <= (double)n; break;
+                    case GREATER: running = i > (double)n; break;
+                    default: running = i >= (double)n; break;
+                }
+                if (!running) return;
+
+                if (Lox.metered) interpreter.tick(stmt.keyword);
+                if (loop.bodyReads) interpreter.write(loop.counter, i);
+                body.run();
+
+                if (loop.bodyWrites) {
+                    Object counter = interpreter.read(loop.counter);
+                    if (!(counter instanceof Double)) {
+                        increment.run();
+                        general.run();
+                        return;
+                    }
+                    i = (double)counter;
+                }
+                i += loop.step;
+            }
+        };
+    }
+
+    @Override
+    public Action visitFunctionStmt(Stmt.Function stmt) {
+        Interpreter interpreter = this.interpreter;
+        return () -> interpreter.execute(stmt);
+    }
+
+    @Override
+    public Action visitIfStmt(Stmt.If stmt) {
+        Interpreter interpreter = this.interpreter;
+        Code condition = compile(stmt.condition);
+        Action thenBranch = compile(stmt.thenBranch);
+        Action elseBranch = compile(stmt.elseBranch);
+        if (elseBranch == null) {
+            return () -> {
+                if (interpreter.isTruthy(condition.run())) thenBranch.run();
+            };
+        }
+        return () -> {
+            if (interpreter.isTruthy(condition.run())) {
+                thenBranch.run();
+            } else {
+                elseBranch.run();
+            }
+        };
+    }
+
+    @Override
+    public Action visitPrintStmt(Stmt.Print stmt) {
+        Interpreter interpreter = this.interpreter;
+        Code expression = compile(stmt.expression);
+        return () -> System.out.println(interpreter.stringify(expression.run()));
+    }
+
+    @Override
+    public Action visitReturnStmt(Stmt.Return stmt) {
+        Interpreter interpreter = this.interpreter;
+        if (interpreter.isTailCall(stmt)) {
+            // As in Interpreter.visitReturnStmt(), Lox functions unwind to the trampoline.
+            Expr.Call call = (Expr.Call)stmt.value;
+            Code callee = compile(call.callee);
+            Code[] arguments = compileArguments(call.arguments);
+            Token paren = call.paren;
+            int count = arguments.length;
+            return () -> {
+                Object function = callee.run();
+                Object a = null, b = null, c = null;
+                Object[] values = null;
+                if (count > 3) {
+                    values = values(arguments);
+                } else {
+                    if (count > 0) a = arguments[0].run();
+                    if (count > 1) b = arguments[1].run();
+                    if (count > 2) c = arguments[2].run();
+                }
+                LoxCallable checked = interpreter.checkCall(paren, function, count);
+                if (checked instanceof LoxFunction) {
+                    throw interpreter.tailCall((LoxFunction)checked, a, b, c, values);
+                }
+                throw new Return(interpreter.call(paren, checked, count, a, b, c, values));
+            };
+        }
+
+        Code value = compile(stmt.value);
+        if (value == null) {
+            return () -> {
+                throw new Return(null);
+            };
+        }
+        return () -> {
+            throw new Return(value.run());
+        };
+    }
+
+    @Override
+    public Action visitVarStmt(Stmt.Var stmt) {
+        Interpreter interpreter = this.interpreter;
+        Code initializer = compile(stmt.initializer);
+        Code value = initializer != null ? initializer : () -> null;
+        Slot slot = interpreter.slot(stmt);
+        if (slot == null) {
+            String name = stmt.name.lexeme;
+            return () -> interpreter.globals.define(name, value.run());
+        }
+
+        int index = slot.index;
+        if (slot.captured) {
+            return () -> {
+                Cell cell = interpreter.cell(value.run());
+                interpreter.stack[interpreter.frame + index] = cell;
+            };
+        }
+        return () -> {
+            Object result = value.run();
+            interpreter.stack[interpreter.frame + index] = result;
+        };
+    }
+
+    @Override
+    public Action visitWhileStmt(Stmt.While stmt) {
+        Interpreter interpreter = this.interpreter;
+        Code condition = compile(stmt.condition);
+        Action body = compile(stmt.body);
+        return () -> {
+            while (interpreter.isTruthy(condition.run())) {
+                if (Lox.metered) interpreter.tick(stmt.keyword);
+                body.run();
+            }
+        };
+    }
+
+    @Override
+    public Action visitYieldStmt(Stmt.Yield stmt) {
+        Interpreter interpreter = this.interpreter;
+        Code value = stmt.value != null ? compile(stmt.value) : () -> null;
+        return () -> interpreter.generator.yield(value.run());
+    }
+}
@@ -0,0 +1,22 @@
+package jlox;
+
+class CountedLoop {
+    /* A for loop the Resolver recognized as counting a local number
+     variable: 'for (var i = a; i < n; i = i + c)' with any of <, <=, >, >=
+     and a constant step. The Interpreter keeps 'i' as a primitive double,
+     writing it to its slot only if the body reads it and reloading it only
+     if the body assigns it. */
+    final Slot counter;
+    final TokenType comparison;
+    final double step;
+    boolean bodyReads = false;
+    boolean bodyWrites = false;
+    // The counted loop this one is nested in, while the Resolver is in it.
+    CountedLoop enclosing;
+
+    CountedLoop(Slot counter, TokenType comparison, double step) {
+        this.counter = counter;
+        this.comparison = comparison;
+        this.step = step;
+    }
+}
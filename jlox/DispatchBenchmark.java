@@ -0,0 +1,85 @@
+package jlox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+class DispatchBenchmark {
+    /* Compares the visitor with -Djlox.dispatch=switch across the
+     interpreter benchmarks. The mode is fixed when Lox is loaded, so each
+     one runs in a JVM of its own. Within it, every script is run WARMUP
+     times untimed, so the JIT has settled, then RUNS times; the median and
+     fastest run are reported. Only interpreting is timed, on a fresh
+     Interpreter each run, and what the scripts print is discarded.
+     Usage: java jlox.DispatchBenchmark [scripts] */
+    private static final int WARMUP = 3;
+    private static final int RUNS = 5;
+    private static final String[] SCRIPTS = {
+        "benchmark/dispatch.lox", "benchmark/blocks.lox", "benchmark/allocation.lox",
+        "benchmark/escape.lox", "benchmark/memo.lox", "benchmark/instantiation.lox",
+        "benchmark/inheritance.lox", "benchmark/super.lox",
+    };
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String[] scripts = args.length > 0 ? args : SCRIPTS;
+        if (System.getProperty("jlox.dispatch") != null) {
+            measure(scripts);
+            return;
+        }
+
+        System.out.printf("%-10s %-28s %10s %10s%n", "dispatch", "script", "median ms", "min ms");
+        for (String mode : new String[] {"visitor", "switch"}) {
+            List<String> command = new ArrayList<>(Arrays.asList(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Djlox.dispatch=" + mode,
+                "-cp", System.getProperty("java.class.path"),
+                DispatchBenchmark.class.getName()));
+            command.addAll(Arrays.asList(scripts));
+            int status = new ProcessBuilder(command).inheritIO().start().waitFor();
+            if (status != 0) System.exit(status);
+        }
+    }
+
+    private static void measure(String[] scripts) throws IOException {
+        PrintStream out = System.out;
+        String mode = Lox.switchDispatch ? "switch" : "visitor";
+        for (String path : scripts) {
+            byte[] bytes = Files.readAllBytes(Paths.get(path));
+            String source = new String(bytes, Charset.defaultCharset());
+
+            long[] times = new long[RUNS];
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            try {
+                for (int i = 0; i < WARMUP; i++) run(source);
+                for (int i = 0; i < RUNS; i++) times[i] = run(source);
+            } finally {
+                System.setOut(out);
+            }
+
+            Arrays.sort(times);
+            out.printf("%-10s %-28s %10.0f %10.0f%n", mode, path,
+                times[RUNS / 2] / 1e6, times[0] / 1e6);
+        }
+    }
+
+    private static long run(String source) {
+        // Returns the nanoseconds spent interpreting the script.
+        Interpreter interpreter = new Interpreter();
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        new Resolver(interpreter).resolve(statements);
+        if (Lox.hadError) System.exit(65);
+        statements = new Optimizer(interpreter).optimize(statements);
+
+        long start = System.nanoTime();
+        interpreter.interpret(statements);
+        long time = System.nanoTime() - start;
+        if (Lox.hadRuntimeError) System.exit(70);
+        return time;
+    }
+}
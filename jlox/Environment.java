@@ -1,9 +1,10 @@
 package jlox;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 class Environment {
+    // Holds global variables. Locals live in the Interpreter's frame stack.
     // Set refer to enclosing environments for local scope.
     final Environment enclosing;
     
@@ -17,12 +18,17 @@ class Environment {
         this.enclosing = enclosing;
     }
 
-    private final Map<String, Object> values = new HashMap<>();
+    /* Globals are read by every task, so they live in a map that is safe
+     to share without locking. It can't hold null, so nil is stored as NIL. */
+    private static final Object NIL = new Object();
+    private final Map<String, Object> values = new ConcurrentHashMap<>();
+    // Counts changes to globals that held or now hold a Lox function; see Memo.
+    int version = 0;
 
     Object get(Token name) {
-        
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
+        Object value = values.get(name.lexeme);
+        if (value != null) {
+            return value == NIL ? null : value;
         }
 
         // If variable not found in local scope, try enclosing one.
@@ -34,8 +40,9 @@ class Environment {
 
     void assign(Token name, Object value) {
         // Assigns variable (but doesn't allow creation of new variables).
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
+        Object previous = values.replace(name.lexeme, value == null ? NIL : value);
+        if (previous != null) {
+            if (value instanceof LoxFunction || previous instanceof LoxFunction) version++;
             return;
         }
 
@@ -50,25 +57,8 @@ class Environment {
 
     void define(String name, Object value) {
         // Defines variables (and allows redefinition).
-        values.put(name, value);
-    }
-
-    Environment ancestor(int distance) {
-        // Walks a given number of steps up the environment chain and returns that environment.
-        Environment environment = this;
-        for (int i = 0; i < distance; i++) {
-            environment = environment.enclosing;
-        }
-
-        return environment;
-    }
-
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
-    }
-
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+        Object previous = values.put(name, value == null ? NIL : value);
+        if (value instanceof LoxFunction || previous instanceof LoxFunction) version++;
     }
 
 }
\ No newline at end of file
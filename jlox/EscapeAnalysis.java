@@ -0,0 +1,240 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+class EscapeAnalysis implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    /* Finds the locals of a function body that hold an instance which
+     never escapes (-Djlox.scalars=true). A candidate is declared as
+     'var p = C(...)' with C a plain name, and every later use is 'p.f' or
+     'p.f = v'. Any other use (passing, returning, storing, printing,
+     comparing or assigning it, or capturing it in a closure) rules it out.
+     Survivors get a ScalarObject and a frame slot per field name, added to
+     the end of the function's frame. Nested functions are analyzed when
+     they are first called. */
+    private final Interpreter interpreter;
+    private final Map<Slot, Stmt.Var> candidates = new LinkedHashMap<>();
+    private final Map<Slot, List<Expr>> uses = new HashMap<>();
+
+    private EscapeAnalysis(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    static void analyze(Interpreter interpreter, Stmt.Function function, FrameLayout layout) {
+        EscapeAnalysis analysis = new EscapeAnalysis(interpreter);
+        analysis.analyze(function.body);
+
+        for (Map.Entry<Slot, Stmt.Var> candidate : analysis.candidates.entrySet()) {
+            ScalarObject scalar = new ScalarObject();
+            List<Expr> uses = analysis.uses.getOrDefault(candidate.getKey(), new ArrayList<>());
+            for (Expr use : uses) {
+                String name = use.kind == Expr.GET ? ((Expr.Get)use).name.lexeme
+                    : ((Expr.Set)use).name.lexeme;
+                Integer field = scalar.fields.get(name);
+                if (field == null) {
+                    field = layout.size++;
+                    scalar.fields.put(name, field);
+                }
+                if (use.kind == Expr.GET) {
+                    ((Expr.Get)use).scalar = scalar;
+                    ((Expr.Get)use).field = field;
+                } else {
+                    ((Expr.Set)use).scalar = scalar;
+                    ((Expr.Set)use).field = field;
+                }
+            }
+            candidate.getValue().scalar = scalar;
+        }
+    }
+
+    private void analyze(List<Stmt> statements) {
+        for (Stmt statement : statements) analyze(statement);
+    }
+
+    private void analyze(Stmt stmt) {
+        if (stmt != null) stmt.accept(this);
+    }
+
+    private void analyze(Expr expr) {
+        if (expr != null) expr.accept(this);
+    }
+
+    private Slot candidate(Expr expr) {
+        // The candidate an expression names directly, if any.
+        if (expr.kind != Expr.VARIABLE) return null;
+        Slot slot = ((Expr.Variable)expr).slot;
+        return candidates.containsKey(slot) ? slot : null;
+    }
+
+    private void escape(Slot slot) {
+        if (slot != null) candidates.remove(slot);
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        analyze(expr.value);
+        escape(expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        analyze(expr.left);
+        analyze(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        analyze(expr.callee);
+        for (Expr argument : expr.arguments) analyze(argument);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        Slot slot = candidate(expr.object);
+        if (slot == null) {
+            analyze(expr.object);
+        } else {
+            uses.computeIfAbsent(slot, k -> new ArrayList<>()).add(expr);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        analyze(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        analyze(expr.left);
+        analyze(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        Slot slot = candidate(expr.object);
+        if (slot == null) {
+            analyze(expr.object);
+        } else {
+            uses.computeIfAbsent(slot, k -> new ArrayList<>()).add(expr);
+        }
+        analyze(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        analyze(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        // Reached only for uses other than 'p.f' and 'p.f = v'.
+        escape(expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        analyze(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        // Methods are functions of their own; only the superclass is used here.
+        analyze(stmt.superclass);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        analyze(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        analyze(stmt.initializer);
+        analyze(stmt.condition);
+        analyze(stmt.increment);
+        analyze(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        // Whatever it captures is marked captured, and never a candidate.
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        analyze(stmt.condition);
+        analyze(stmt.thenBranch);
+        analyze(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        analyze(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        analyze(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        analyze(stmt.initializer);
+
+        Slot slot = interpreter.slot(stmt);
+        if (slot != null && !slot.upvalue && !slot.captured &&
+            stmt.initializer != null && stmt.initializer.kind == Expr.CALL &&
+            ((Expr.Call)stmt.initializer).callee.kind == Expr.VARIABLE) {
+            candidates.put(slot, stmt);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        analyze(stmt.condition);
+        analyze(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        analyze(stmt.value);
+        return null;
+    }
+}
@@ -2,7 +2,19 @@ package jlox;
 
 import java.util.List;
 
-abstract class Expr {
+abstract sealed class Expr permits
+        Expr.Assign,
+        Expr.Binary,
+        Expr.Call,
+        Expr.Get,
+        Expr.Grouping,
+        Expr.Literal,
+        Expr.Logical,
+        Expr.Set,
+        Expr.Super,
+        Expr.This,
+        Expr.Unary,
+        Expr.Variable {
     interface Visitor<R> {
         R visitAssignExpr(Assign expr);
         R visitBinaryExpr(Binary expr);
@@ -18,8 +30,28 @@ abstract class Expr {
         R visitVariableExpr(Variable expr);
     }
 
-    static class Assign extends Expr {
+    static final int ASSIGN = 0;
+    static final int BINARY = 1;
+    static final int CALL = 2;
+    static final int GET = 3;
+    static final int GROUPING = 4;
+    static final int LITERAL = 5;
+    static final int LOGICAL = 6;
+    static final int SET = 7;
+    static final int SUPER = 8;
+    static final int THIS = 9;
+    static final int UNARY = 10;
+    static final int VARIABLE = 11;
+
+    final int kind;
+
+    Expr(int kind) {
+        this.kind = kind;
+    }
+
+    static final class Assign extends Expr {
         Assign(Token name, Expr value) {
+            super(ASSIGN);
             this.name = name;
             this.value = value;
         }
@@ -31,10 +63,12 @@ abstract class Expr {
 
         final Token name;
         final Expr value;
+        Slot slot;
     }
 
-    static class Binary extends Expr {
+    static final class Binary extends Expr {
         Binary(Expr left, Token operator, Expr right) {
+            super(BINARY);
             this.left = left;
             this.operator = operator;
             this.right = right;
@@ -50,8 +84,9 @@ abstract class Expr {
         final Expr right;
     }
 
-    static class Call extends Expr {
+    static final class Call extends Expr {
         Call(Expr callee, Token paren, List<Expr> arguments) {
+            super(CALL);
             this.callee = callee;
             this.paren = paren;
             this.arguments = arguments;
@@ -65,10 +100,12 @@ abstract class Expr {
         final Expr callee;
         final Token paren;
         final List<Expr> arguments;
+        LoxCallSite site;
     }
 
-    static class Get extends Expr {
+    static final class Get extends Expr {
         Get(Expr object, Token name) {
+            super(GET);
             this.object = object;
             this.name = name;
         }
@@ -80,10 +117,13 @@ abstract class Expr {
 
         final Expr object;
         final Token name;
+        ScalarObject scalar;
+        int field;
     }
 
-    static class Grouping extends Expr {
+    static final class Grouping extends Expr {
         Grouping(Expr expression) {
+            super(GROUPING);
             this.expression = expression;
         }
 
@@ -95,8 +135,9 @@ abstract class Expr {
         final Expr expression;
     }
 
-    static class Literal extends Expr {
+    static final class Literal extends Expr {
         Literal(Object value) {
+            super(LITERAL);
             this.value = value;
         }
 
@@ -108,8 +149,9 @@ abstract class Expr {
         final Object value;
     }
 
-    static class Logical extends Expr {
+    static final class Logical extends Expr {
         Logical(Expr left, Token operator, Expr right) {
+            super(LOGICAL);
             this.left = left;
             this.operator = operator;
             this.right = right;
@@ -125,8 +167,9 @@ abstract class Expr {
         final Expr right;
     }
 
-    static class Set extends Expr {
+    static final class Set extends Expr {
         Set(Expr object, Token name, Expr value) {
+            super(SET);
             this.object = object;
             this.name = name;
             this.value = value;
@@ -140,10 +183,13 @@ abstract class Expr {
         final Expr object;
         final Token name;
         final Expr value;
+        ScalarObject scalar;
+        int field;
     }
 
-    static class Super extends Expr {
+    static final class Super extends Expr {
         Super(Token keyword, Token method) {
+            super(SUPER);
             this.keyword = keyword;
             this.method = method;
         }
@@ -155,10 +201,14 @@ abstract class Expr {
 
         final Token keyword;
         final Token method;
+        Slot slot;
+        Slot receiver;
+        volatile SuperMethod target;
     }
 
-    static class This extends Expr {
+    static final class This extends Expr {
         This(Token keyword) {
+            super(THIS);
             this.keyword = keyword;
         }
 
@@ -168,10 +218,12 @@ abstract class Expr {
         }
 
         final Token keyword;
+        Slot slot;
     }
 
-    static class Unary extends Expr {
+    static final class Unary extends Expr {
         Unary(Token operator, Expr right) {
+            super(UNARY);
             this.operator = operator;
             this.right = right;
         }
@@ -185,8 +237,9 @@ abstract class Expr {
         final Expr right;
     }
 
-    static class Variable extends Expr {
+    static final class Variable extends Expr {
         Variable(Token name) {
+            super(VARIABLE);
             this.name = name;
         }
 
@@ -196,6 +249,7 @@ abstract class Expr {
         }
 
         final Token name;
+        Slot slot;
     }
 
     abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,309 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+class FlatAst implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+    /* A resolved script or function body packed into int arrays for the
+     Interpreter's tag-switch evaluator (-Djlox.flat=true). Each node is
+     four ints in 'code': its kind and three operands, which are child node
+     offsets, frame slot numbers or indices into 'constants' (literal values,
+     tokens for names and errors, and the few nodes still run by the tree
+     walk). A node is named by its offset in 'code'. Variable-length children
+     live in 'lists' as a count followed by the node offsets; -1 is an absent
+     child. */
+
+    // Expressions.
+    static final int CONSTANT = 0;       // value
+    static final int LOCAL = 1;          // slot, mode
+    static final int GLOBAL = 2;         // name
+    static final int ASSIGN_LOCAL = 3;   // slot, mode, value
+    static final int ASSIGN_GLOBAL = 4;  // name, -, value
+    static final int ADD = 5;            // left, right, operator
+    static final int SUBTRACT = 6;
+    static final int MULTIPLY = 7;
+    static final int DIVIDE = 8;
+    static final int LESS = 9;
+    static final int LESS_EQUAL = 10;
+    static final int GREATER = 11;
+    static final int GREATER_EQUAL = 12;
+    static final int EQUAL = 13;
+    static final int NOT_EQUAL = 14;
+    static final int AND = 15;           // left, right
+    static final int OR = 16;
+    static final int NOT = 17;           // operand
+    static final int NEGATE = 18;        // operand, -, operator
+    static final int CALL = 19;          // callee, arguments, paren
+    static final int GET = 20;           // object, -, name
+    static final int SET = 21;           // object, value, name
+    static final int EXPR = 22;          // tree node
+
+    // Statements.
+    static final int EXPRESSION = 23;    // expression
+    static final int PRINT = 24;         // expression
+    static final int VAR_LOCAL = 25;     // slot, mode, initializer
+    static final int VAR_GLOBAL = 26;    // name, -, initializer
+    static final int BLOCK = 27;         // statements
+    static final int IF = 28;            // condition, then, else
+    static final int WHILE = 29;         // condition, body, keyword
+    static final int FOR = 30;           // initializer, [condition, increment, body, keyword], counted loop
+    static final int RETURN = 31;        // value
+    static final int TAIL_RETURN = 32;   // callee, arguments, paren
+    static final int STMT = 33;          // tree node
+
+    // How a LOCAL slot is reached: directly, through its frame cell, or as an upvalue.
+    static final int FRAME = 0;
+    static final int CELL = 1;
+    static final int UPVALUE = 2;
+
+    private final Interpreter interpreter;
+    int[] code = new int[64];
+    int[] lists = new int[16];
+    Object[] constants = new Object[16];
+    // The list of top-level statements.
+    int root;
+    private int codeSize = 0;
+    private int listsSize = 0;
+    private int constantCount = 0;
+
+    private FlatAst(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    static FlatAst encode(Interpreter interpreter, List<Stmt> statements) {
+        FlatAst ast = new FlatAst(interpreter);
+        ast.root = ast.statements(statements);
+
+        // Trim to size; the arrays are all that stays reachable.
+        ast.code = Arrays.copyOf(ast.code, ast.codeSize);
+        ast.lists = Arrays.copyOf(ast.lists, ast.listsSize);
+        ast.constants = Arrays.copyOf(ast.constants, ast.constantCount);
+        return ast;
+    }
+
+    int nodeCount() {
+        return code.length / 4;
+    }
+
+    private int node(int kind, int a, int b, int c) {
+        if (codeSize + 4 > code.length) code = Arrays.copyOf(code, code.length * 2);
+        int node = codeSize;
+        code[node] = kind;
+        code[node + 1] = a;
+        code[node + 2] = b;
+        code[node + 3] = c;
+        codeSize += 4;
+        return node;
+    }
+
+    private int list(List<Integer> nodes) {
+        if (listsSize + nodes.size() + 1 > lists.length) {
+            lists = Arrays.copyOf(lists, Math.max(lists.length * 2, listsSize + nodes.size() + 1));
+        }
+        int list = listsSize;
+        lists[listsSize++] = nodes.size();
+        for (int node : nodes) lists[listsSize++] = node;
+        return list;
+    }
+
+    private int constant(Object value) {
+        if (constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constants.length * 2);
+        }
+        constants[constantCount] = value;
+        return constantCount++;
+    }
+
+    private int statements(List<Stmt> statements) {
+        List<Integer> nodes = new ArrayList<>();
+        for (Stmt statement : statements) nodes.add(encode(statement));
+        return list(nodes);
+    }
+
+    private int encode(Stmt stmt) {
+        return stmt == null ? -1 : stmt.accept(this);
+    }
+
+    private int encode(Expr expr) {
+        return expr == null ? -1 : expr.accept(this);
+    }
+
+    private static int mode(Slot slot) {
+        if (slot.upvalue) return UPVALUE;
+        return slot.captured ? CELL : FRAME;
+    }
+
+    private int variable(Expr expr, Token name) {
+        Slot slot = interpreter.slot(expr);
+        if (slot == null) return node(GLOBAL, constant(name), 0, 0);
+        return node(LOCAL, slot.index, mode(slot), 0);
+    }
+
+    private int arguments(List<Expr> arguments) {
+        List<Integer> nodes = new ArrayList<>();
+        for (Expr argument : arguments) nodes.add(encode(argument));
+        return list(nodes);
+    }
+
+    @Override
+    public Integer visitAssignExpr(Expr.Assign expr) {
+        int value = encode(expr.value);
+        Slot slot = interpreter.slot(expr);
+        if (slot == null) return node(ASSIGN_GLOBAL, constant(expr.name), 0, value);
+        return node(ASSIGN_LOCAL, slot.index, mode(slot), value);
+    }
+
+    @Override
+    public Integer visitBinaryExpr(Expr.Binary expr) {
+        int kind;
+        switch (expr.operator.type) {
+            case PLUS: kind = ADD; break;
+            case MINUS: kind = SUBTRACT; break;
+            case STAR: kind = MULTIPLY; break;
+            case SLASH: kind = DIVIDE; break;
+            case LESS: kind = LESS; break;
+            case LESS_EQUAL: kind = LESS_EQUAL; break;
+            case GREATER: kind = GREATER; break;
+            case GREATER_EQUAL: kind = GREATER_EQUAL; break;
+            case EQUAL_EQUAL: kind = EQUAL; break;
+            default: kind = NOT_EQUAL; break;
+        }
+        int left = encode(expr.left);
+        int right = encode(expr.right);
+        return node(kind, left, right, constant(expr.operator));
+    }
+
+    @Override
+    public Integer visitCallExpr(Expr.Call expr) {
+        int callee = encode(expr.callee);
+        return node(CALL, callee, arguments(expr.arguments), constant(expr.paren));
+    }
+
+    @Override
+    public Integer visitGetExpr(Expr.Get expr) {
+        return node(GET, encode(expr.object), 0, constant(expr.name));
+    }
+
+    @Override
+    public Integer visitGroupingExpr(Expr.Grouping expr) {
+        // Grouping only matters to the parser.
+        return encode(expr.expression);
+    }
+
+    @Override
+    public Integer visitLiteralExpr(Expr.Literal expr) {
+        return node(CONSTANT, constant(expr.value), 0, 0);
+    }
+
+    @Override
+    public Integer visitLogicalExpr(Expr.Logical expr) {
+        int left = encode(expr.left);
+        int right = encode(expr.right);
+        return node(expr.operator.type == TokenType.OR ? OR : AND, left, right, 0);
+    }
+
+    @Override
+    public Integer visitSetExpr(Expr.Set expr) {
+        int object = encode(expr.object);
+        int value = encode(expr.value);
+        return node(SET, object, value, constant(expr.name));
+    }
+
+    @Override
+    public Integer visitSuperExpr(Expr.Super expr) {
+        // Rare enough to leave to the tree walk.
+        return node(EXPR, constant(expr), 0, 0);
+    }
+
+    @Override
+    public Integer visitThisExpr(Expr.This expr) {
+        return variable(expr, expr.keyword);
+    }
+
+    @Override
+    public Integer visitUnaryExpr(Expr.Unary expr) {
+        int kind = expr.operator.type == TokenType.BANG ? NOT : NEGATE;
+        return node(kind, encode(expr.right), 0, constant(expr.operator));
+    }
+
+    @Override
+    public Integer visitVariableExpr(Expr.Variable expr) {
+        return variable(expr, expr.name);
+    }
+
+    @Override
+    public Integer visitBlockStmt(Stmt.Block stmt) {
+        return node(BLOCK, statements(stmt.statements), 0, 0);
+    }
+
+    @Override
+    public Integer visitClassStmt(Stmt.Class stmt) {
+        // Declarations run once per closure, so they stay on the tree walk.
+        return node(STMT, constant(stmt), 0, 0);
+    }
+
+    @Override
+    public Integer visitExpressionStmt(Stmt.Expression stmt) {
+        return node(EXPRESSION, encode(stmt.expression), 0, 0);
+    }
+
+    @Override
+    public Integer visitForStmt(Stmt.For stmt) {
+        int initializer = encode(stmt.initializer);
+        List<Integer> clauses = new ArrayList<>();
+        clauses.add(encode(stmt.condition));
+        clauses.add(encode(stmt.increment));
+        clauses.add(encode(stmt.body));
+        clauses.add(constant(stmt.keyword));
+
+        CountedLoop loop = interpreter.countedLoop(stmt);
+        return node(FOR, initializer, list(clauses), loop == null ? -1 : constant(loop));
+    }
+
+    @Override
+    public Integer visitFunctionStmt(Stmt.Function stmt) {
+        return node(STMT, constant(stmt), 0, 0);
+    }
+
+    @Override
+    public Integer visitIfStmt(Stmt.If stmt) {
+        int condition = encode(stmt.condition);
+        int thenBranch = encode(stmt.thenBranch);
+        return node(IF, condition, thenBranch, encode(stmt.elseBranch));
+    }
+
+    @Override
+    public Integer visitPrintStmt(Stmt.Print stmt) {
+        return node(PRINT, encode(stmt.expression), 0, 0);
+    }
+
+    @Override
+    public Integer visitReturnStmt(Stmt.Return stmt) {
+        if (interpreter.isTailCall(stmt)) {
+            Expr.Call call = (Expr.Call)stmt.value;
+            int callee = encode(call.callee);
+            return node(TAIL_RETURN, callee, arguments(call.arguments), constant(call.paren));
+        }
+        return node(RETURN, encode(stmt.value), 0, 0);
+    }
+
+    @Override
+    public Integer visitVarStmt(Stmt.Var stmt) {
+        int initializer = encode(stmt.initializer);
+        Slot slot = interpreter.slot(stmt);
+        if (slot == null) return node(VAR_GLOBAL, constant(stmt.name), 0, initializer);
+        return node(VAR_LOCAL, slot.index, mode(slot), initializer);
+    }
+
+    @Override
+    public Integer visitWhileStmt(Stmt.While stmt) {
+        int condition = encode(stmt.condition);
+        return node(WHILE, condition, encode(stmt.body), constant(stmt.keyword));
+    }
+
+    @Override
+    public Integer visitYieldStmt(Stmt.Yield stmt) {
+        return node(STMT, constant(stmt), 0, 0);
+    }
+}
@@ -0,0 +1,83 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class FlatBenchmark {
+    /* Measures what the packed form of -Djlox.flat=true costs per node
+     against the object tree it is encoded from. Generates a program of
+     about a million nodes, parses and resolves it, then encodes every
+     function body. The tree stays reachable in a real run: functions hold
+     their declarations, the Interpreter keys packed bodies and resolution
+     by tree node, and the flat code refers back to tokens and to the nodes
+     it leaves to the tree walk. So what flat mode retains is the tree plus
+     the arrays, measured here with both reachable. Dropping the parsed
+     statements afterwards shows how much of the tree the arrays and the
+     Interpreter would still hold on their own.
+     Usage: java jlox.FlatBenchmark [functions] */
+    public static void main(String[] args) {
+        int functions = args.length == 1 ? Integer.parseInt(args[0]) : 14000;
+
+        long base = usedHeap();
+        List<Token> tokens = new Scanner(generate(functions)).scanTokens();
+        List<Stmt> statements = new Parser(tokens).parse();
+        Interpreter interpreter = new Interpreter();
+        new Resolver(interpreter).resolve(statements);
+        if (Lox.hadError) System.exit(65);
+        tokens = null;
+        long tree = usedHeap() - base;
+
+        long start = System.nanoTime();
+        List<FlatAst> bodies = new ArrayList<>();
+        for (Stmt statement : statements) {
+            bodies.add(FlatAst.encode(interpreter, ((Stmt.Function)statement).body));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long retained = usedHeap() - base;
+        long flat = retained - tree;
+
+        long nodes = 0, arrays = 0;
+        for (FlatAst body : bodies) {
+            nodes += body.nodeCount();
+            arrays += 16 + 4L * body.code.length + 16 + 4L * body.lists.length +
+                16 + 4L * body.constants.length;
+        }
+
+        System.out.printf("%d nodes encoded in %.0f ms%n", nodes, seconds * 1000);
+        System.out.printf("tree (nodes, tokens, resolution): %.1f bytes per node%n",
+            tree / (double)nodes);
+        System.out.printf("flat arrays: %.1f bytes per node, %.1f on the heap%n",
+            arrays / (double)nodes, flat / (double)nodes);
+        System.out.printf("flat mode retains (tree and arrays): %.1f bytes per node, %+.0f%%%n",
+            retained / (double)nodes, 100.0 * flat / tree);
+
+        // Keep both forms reachable until they have been measured.
+        if (statements.isEmpty()) System.out.println();
+        statements = null;
+        long alone = usedHeap() - base;
+        System.out.printf("after dropping the statements: %.1f bytes per node%n",
+            alone / (double)nodes);
+        if (bodies.isEmpty()) System.out.println();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String generate(int functions) {
+        // Straight-line arithmetic, loops and calls: code the flat form encodes entirely.
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < functions; i++) {
+            builder.append("fun f").append(i).append("(a, b, c) {\n")
+                .append("  var x = a + b * c - (a / 2) * -b;\n")
+                .append("  for (var i = 0; i < c; i = i + 1) x = x + i * a;\n")
+                .append("  while (x > b and !c) x = x - 1;\n")
+                .append("  if (x >= 10 or x != b) x = f").append(i).append("(x, b, c - 1);\n")
+                .append("  return x == a * 2 + 3 < b * c;\n")
+                .append("}\n");
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,16 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class FrameLayout {
+    /* The Resolver's description of a function's call frame: how many
+     slots it needs, where 'this' and the parameters go, and which variables
+     of the enclosing frame it captures (in upvalue order). A function
+     whose body yields is a generator. */
+    int size = 0;
+    boolean generator = false;
+    Slot receiver;
+    final List<Slot> params = new ArrayList<>();
+    final List<Slot> captures = new ArrayList<>();
+}
@@ -1,17 +1,72 @@
 package jlox;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiFunction;
 
 class Interpreter implements Expr.Visitor<Object>,
                              Stmt.Visitor<Void> {
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    /* Set once spawn() has started a second thread. Instances only lock
+     their fields from then on, so a single-threaded script doesn't pay for
+     it. */
+    static volatile boolean concurrent = false;
+
+    /* The globals and what the Resolver worked out are shared with the
+     Interpreters of spawned tasks, and lazily loaded bodies can add to
+     them from any thread. */
+    final Environment globals;
+    private final Map<Stmt, Slot> declarations;
+    private final Map<Stmt.Function, FrameLayout> layouts;
+    private final Map<Stmt.Class, Slot> superclasses;
+    private final Set<Stmt.Return> tailCalls;
+    private final Map<Stmt.For, CountedLoop> countedLoops;
+    // Packed bodies for the flat evaluator, encoded on first call.
+    private final Map<Stmt.Function, FlatAst> flatBodies;
+    // Functions whose bodies EscapeAnalysis has been over; see analyze().
+    private final Set<Stmt.Function> analyzed;
+    // Cached results of pure functions, with -Djlox.memo=N.
+    private final Map<Stmt.Function, Memo> memos;
+    // Closure-compiled bodies, compiled on first call. The closures hold this Interpreter.
+    private final Map<Stmt.Function, Compiler.Action[]> compiledBodies = new HashMap<>();
+    private final TailCall tailCall = new TailCall();
+    // The run's fuel and deadline, and the ticks left before this Interpreter checks them.
+    private final Budget budget;
+    private int countdown = 0;
+    // Bytes allocated since they were last handed to the Budget, and ticks set aside meanwhile.
+    private long allocated = 0;
+    private int spare = 0;
+
+    /* Locals live in this value stack rather than in per-call environments.
+     'frame' is the base slot of the running call and 'top' the first free
+     slot; 'upvalues' are the cells captured by the running closure. */
+    Object[] stack = new Object[256];
+    int frame = 0;
+    private int top = 0;
+    Cell[] upvalues = new Cell[0];
+    private FrameLayout script = new FrameLayout();
+    // The generator whose body is running, which a 'yield' hands its value to.
+    LoxGenerator.Body generator;
+    // Bodies of dropped generators, queued by the Cleaner for this Interpreter's thread to end.
+    final Queue<LoxGenerator.Body> abandoned = new ConcurrentLinkedQueue<>();
 
     Interpreter() {
+        globals = new Environment();
+        declarations = new ConcurrentHashMap<>();
+        layouts = new ConcurrentHashMap<>();
+        superclasses = new ConcurrentHashMap<>();
+        tailCalls = ConcurrentHashMap.newKeySet();
+        countedLoops = new ConcurrentHashMap<>();
+        flatBodies = new ConcurrentHashMap<>();
+        analyzed = ConcurrentHashMap.newKeySet();
+        memos = new ConcurrentHashMap<>();
+        budget = new Budget();
+
         globals.define("clock", new LoxCallable() {
             @Override
             public int arity() { return 0; }
@@ -19,19 +74,143 @@ class Interpreter implements Expr.Visitor<Object>,
             @Override
             public Object call(Interpreter interpreter,
                                 List<Object> arguments) {
+                return call0(interpreter);
+            }
+
+            @Override
+            public Object call0(Interpreter interpreter) {
                 return (double)System.currentTimeMillis() / 1000.0;
             }
         });
+
+        // Tasks and channels.
+        defineNative("spawn", 1, (interpreter, arguments) -> {
+            Object function = arguments.get(0);
+            if (!(function instanceof LoxCallable) || ((LoxCallable)function).arity() != 0) {
+                throw nativeError("spawn", "Can only spawn functions and classes that take no arguments.");
+            }
+            return new LoxTask(interpreter, (LoxCallable)function);
+        });
+        defineNative("join", 1, (interpreter, arguments) -> {
+            if (!(arguments.get(0) instanceof LoxTask)) {
+                throw nativeError("join", "Can only join a task.");
+            }
+            return ((LoxTask)arguments.get(0)).join();
+        });
+        defineNative("channel", 1, (interpreter, arguments) -> {
+            Object capacity = arguments.get(0);
+            if (!(capacity instanceof Double) || (Double)capacity < 0 ||
+                (Double)capacity != Math.floor((Double)capacity)) {
+                throw nativeError("channel", "Channel capacity must be a whole number.");
+            }
+            return new LoxChannel(((Double)capacity).intValue());
+        });
+        defineNative("send", 2, (interpreter, arguments) -> {
+            if (!(arguments.get(0) instanceof LoxChannel)) {
+                throw nativeError("send", "Can only send to a channel.");
+            }
+            ((LoxChannel)arguments.get(0)).send(arguments.get(1));
+            return null;
+        });
+        defineNative("receive", 1, (interpreter, arguments) -> {
+            if (!(arguments.get(0) instanceof LoxChannel)) {
+                throw nativeError("receive", "Can only receive from a channel.");
+            }
+            return ((LoxChannel)arguments.get(0)).receive();
+        });
+
+        // Data-parallel loops over 0 to n - 1.
+        defineNative("parallelMap", 2, (interpreter, arguments) -> {
+            int count = count("parallelMap", arguments.get(0));
+            LoxCallable function = callable("parallelMap", arguments.get(1), 1);
+            return Parallel.map(interpreter, count, function);
+        });
+        defineNative("parallelReduce", 4, (interpreter, arguments) -> {
+            int count = count("parallelReduce", arguments.get(0));
+            LoxCallable function = callable("parallelReduce", arguments.get(1), 1);
+            LoxCallable combine = callable("parallelReduce", arguments.get(2), 2);
+            return Parallel.reduce(interpreter, count, function, combine, arguments.get(3));
+        });
+    }
+
+    private static int count(String name, Object count) {
+        if (!(count instanceof Double) || (Double)count < 0 ||
+            (Double)count != Math.floor((Double)count)) {
+            throw nativeError(name, "Count must be a whole number.");
+        }
+        return ((Double)count).intValue();
+    }
+
+    private static LoxCallable callable(String name, Object function, int arity) {
+        if (!(function instanceof LoxCallable) || ((LoxCallable)function).arity() != arity) {
+            throw nativeError(name, "Expected a function that takes " + arity +
+                (arity == 1 ? " argument." : " arguments."));
+        }
+        return (LoxCallable)function;
+    }
+
+    Interpreter(Interpreter parent) {
+        // For a spawned task: the parent's globals and resolution, a value stack of its own.
+        globals = parent.globals;
+        declarations = parent.declarations;
+        layouts = parent.layouts;
+        superclasses = parent.superclasses;
+        tailCalls = parent.tailCalls;
+        countedLoops = parent.countedLoops;
+        flatBodies = parent.flatBodies;
+        analyzed = parent.analyzed;
+        memos = parent.memos;
+        budget = parent.budget;
+    }
+
+    private void defineNative(String name, int arity,
+                              BiFunction<Interpreter, List<Object>, Object> body) {
+        globals.define(name, new LoxCallable() {
+            @Override
+            public int arity() { return arity; }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return body.apply(interpreter, arguments);
+            }
+
+            @Override
+            public String toString() { return "<native fn " + name + ">"; }
+        });
+    }
+
+    static NativeError nativeError(String name, String message) {
+        return new NativeError(name, message);
     }
 
     void interpret(List<Stmt> statements) {
         // Takes in a program (list of statements) and interprets it.
+        int base = top;
+        reserve(base + script.size);
+        frame = base;
+        top = base + script.size;
+        if (Lox.metered) {
+            budget.reset();
+            countdown = 0;
+            allocated = 0;
+            spare = 0;
+        }
         try {
-            for (Stmt statement : statements) {
-                execute(statement);
+            if (Lox.flat) {
+                FlatAst ast = FlatAst.encode(this, statements);
+                executeAll(ast, ast.root);
+            } else if (Lox.compile) {
+                Compiler.run(new Compiler(this).compile(statements));
+            } else {
+                for (Stmt statement : statements) {
+                    execute(statement);
+                }
             }
         } catch (RuntimeError error) {
             Lox.runtimeError(error);
+        } finally {
+            Arrays.fill(stack, base, top, null);
+            top = base;
         }
     }
 
@@ -59,6 +238,11 @@ class Interpreter implements Expr.Visitor<Object>,
         Object object = evaluate(expr.object);
 
         if (!(object instanceof LoxInstance)) {
+            if (expr.scalar != null && object == expr.scalar) {
+                Object value = evaluate(expr.value);
+                stack[frame + expr.field] = value;
+                return value;
+            }
             throw new RuntimeError(expr.name, "Only instances have fields.");
         }
 
@@ -69,23 +253,33 @@ class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
-        LoxClass superclass = (LoxClass)environment.getAt(distance, "super");
-
-        // 'this' is always bounds just inside the environment where 'super' is stored.
-        LoxInstance object = (LoxInstance)environment.getAt(distance - 1, "this");
+        LoxFunction method = superMethod(expr);
+        LoxInstance object = (LoxInstance)read(expr.receiver);
+        return method.bind(object);
+    }
 
-        LoxFunction method = superclass.findMethod(expr.method.lexeme);
+    private LoxFunction superMethod(Expr.Super expr) {
+        /* The superclass method a 'super.m' names. A class statement fixes
+         its superclass when it runs, so the method found is kept on the
+         node and only looked up again if the statement runs again with a
+         different superclass. Tasks share the node, so the class and its
+         method are replaced together, never one field at a time. */
+        LoxClass superclass = (LoxClass)read(expr.slot);
+        SuperMethod target = expr.target;
+        if (target == null || target.superclass != superclass) {
+            target = new SuperMethod(superclass, superclass.findMethod(expr.method.lexeme));
+            expr.target = target;
+        }
 
-        if (method == null) {
+        if (target.method == null) {
             throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
         }
-        return method.bind(object);
+        return target.method;
     }
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        return lookUpVariable(expr.keyword, expr.slot);
     }
 
     @Override
@@ -94,48 +288,658 @@ class Interpreter implements Expr.Visitor<Object>,
         return evaluate(expr.expression);
     }
 
-    private Object evaluate(Expr expr) {
-        // Evaluates an expression by passing the encapsulating Visitor to accept method.
-        return expr.accept(this);
+    Object evaluate(Expr expr) {
+        /* Evaluates an expression through accept(), or by switching on the
+         node's kind tag. The switch avoids a megamorphic call but makes one
+         large recursive method, which the JIT inlines less predictably. */
+        if (!Lox.switchDispatch) return expr.accept(this);
+
+        switch (expr.kind) {
+            case Expr.ASSIGN: return visitAssignExpr((Expr.Assign)expr);
+            case Expr.BINARY: return visitBinaryExpr((Expr.Binary)expr);
+            case Expr.CALL: return visitCallExpr((Expr.Call)expr);
+            case Expr.GET: return visitGetExpr((Expr.Get)expr);
+            case Expr.GROUPING: return visitGroupingExpr((Expr.Grouping)expr);
+            case Expr.LITERAL: return visitLiteralExpr((Expr.Literal)expr);
+            case Expr.LOGICAL: return visitLogicalExpr((Expr.Logical)expr);
+            case Expr.SET: return visitSetExpr((Expr.Set)expr);
+            case Expr.SUPER: return visitSuperExpr((Expr.Super)expr);
+            case Expr.THIS: return visitThisExpr((Expr.This)expr);
+            case Expr.UNARY: return visitUnaryExpr((Expr.Unary)expr);
+            default: return visitVariableExpr((Expr.Variable)expr);
+        }
+    }
+
+    void execute(Stmt stmt) {
+        // Executes a statement, dispatching like evaluate().
+        if (!Lox.switchDispatch) {
+            stmt.accept(this);
+            return;
+        }
+
+        switch (stmt.kind) {
+            case Stmt.BLOCK: visitBlockStmt((Stmt.Block)stmt); break;
+            case Stmt.CLASS: visitClassStmt((Stmt.Class)stmt); break;
+            case Stmt.EXPRESSION: visitExpressionStmt((Stmt.Expression)stmt); break;
+            case Stmt.FOR: visitForStmt((Stmt.For)stmt); break;
+            case Stmt.FUNCTION: visitFunctionStmt((Stmt.Function)stmt); break;
+            case Stmt.IF: visitIfStmt((Stmt.If)stmt); break;
+            case Stmt.PRINT: visitPrintStmt((Stmt.Print)stmt); break;
+            case Stmt.RETURN: visitReturnStmt((Stmt.Return)stmt); break;
+            case Stmt.VAR: visitVarStmt((Stmt.Var)stmt); break;
+            case Stmt.YIELD: visitYieldStmt((Stmt.Yield)stmt); break;
+            default: visitWhileStmt((Stmt.While)stmt); break;
+        }
+    }
+
+    void resolve(Expr expr, Slot slot) {
+        // The slot is kept on the name node itself, so reading a local needs no lookup.
+        switch (expr.kind) {
+            case Expr.ASSIGN: ((Expr.Assign)expr).slot = slot; break;
+            case Expr.SUPER: ((Expr.Super)expr).slot = slot; break;
+            case Expr.THIS: ((Expr.This)expr).slot = slot; break;
+            case Expr.VARIABLE: ((Expr.Variable)expr).slot = slot; break;
+        }
     }
 
-    private void execute(Stmt stmt) {
-        // Executes a statement by passing the encapsulating Visitor to accept method.
-        stmt.accept(this);
+    void resolve(Stmt declaration, Slot slot) {
+        // Records the slot of a local variable, function or class declaration.
+        declarations.put(declaration, slot);
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    void resolve(Stmt.Function function, FrameLayout layout) {
+        layouts.put(function, layout);
     }
 
-    void executeBlock(List<Stmt> statements,
-                      Environment environment) {
-        // Store the outer environment.
-        Environment previous = this.environment;
+    void resolve(Stmt.For stmt, CountedLoop loop) {
+        countedLoops.put(stmt, loop);
+    }
+
+    void resolveScript(FrameLayout layout) {
+        // Layout of the frame holding top-level block locals for the next interpret().
+        script = layout;
+    }
+
+    void resolveSuperclass(Stmt.Class stmt, Slot slot) {
+        superclasses.put(stmt, slot);
+    }
 
+    void resolveReceiver(Expr.Super expr, Slot slot) {
+        expr.receiver = slot;
+    }
+
+    void resolveTailCall(Stmt.Return stmt) {
+        // Marks a 'return f(x);' whose call can reuse the current frame.
+        tailCalls.add(stmt);
+    }
+
+    Slot slot(Expr expr) {
+        switch (expr.kind) {
+            case Expr.ASSIGN: return ((Expr.Assign)expr).slot;
+            case Expr.SUPER: return ((Expr.Super)expr).slot;
+            case Expr.THIS: return ((Expr.This)expr).slot;
+            case Expr.VARIABLE: return ((Expr.Variable)expr).slot;
+            default: return null;
+        }
+    }
+
+    Slot slot(Stmt declaration) {
+        return declarations.get(declaration);
+    }
+
+    boolean isTailCall(Stmt.Return stmt) {
+        return tailCalls.contains(stmt);
+    }
+
+    CountedLoop countedLoop(Stmt.For stmt) {
+        return countedLoops.get(stmt);
+    }
+
+    void replace(Expr original, Expr optimized) {
+        // Carries a resolved slot over to the node the Optimizer rebuilt.
+        Slot slot = slot(original);
+        if (slot != null) resolve(optimized, slot);
+    }
+
+    void replace(Stmt original, Stmt optimized) {
+        // Carries declaration slots, frame layouts and tail-call marks over to a rebuilt node.
+        Slot slot = declarations.get(original);
+        if (slot != null) declarations.put(optimized, slot);
+
+        if (original instanceof Stmt.Function) {
+            FrameLayout layout = layouts.get(original);
+            if (layout != null) layouts.put((Stmt.Function)optimized, layout);
+        } else if (original instanceof Stmt.Class) {
+            Slot superclass = superclasses.get(original);
+            if (superclass != null) superclasses.put((Stmt.Class)optimized, superclass);
+        } else if (original instanceof Stmt.Return) {
+            if (tailCalls.contains(original)) tailCalls.add((Stmt.Return)optimized);
+        } else if (original instanceof Stmt.For) {
+            CountedLoop loop = countedLoops.get(original);
+            if (loop != null) countedLoops.put((Stmt.For)optimized, loop);
+        }
+    }
+
+    void executeFunction(LoxFunction function, LoxInstance receiver,
+                         Object a, Object b, Object c, Object[] arguments) {
+        /* Pushes a frame for the function's locals, runs its body and pops
+         the frame. The arguments are in 'a' to 'c', or all in 'arguments'
+         if there are more than three. */
+        if (Lox.metered) tick(function.declaration.name);
+        if (function.declaration.body instanceof LazyBody) {
+            load(function.declaration);
+        }
+        FrameLayout layout = function.layout;
+        if (Lox.scalars && !Lox.flat && !Lox.compile && !analyzed.contains(function.declaration)) {
+            // Before the first frame, as it may add slots to the layout.
+            analyze(function.declaration, layout);
+        }
+        int previousFrame = frame;
+        Cell[] previousUpvalues = upvalues;
+        int base = top;
+        reserve(base + layout.size);
+
+        frame = base;
+        top = base + layout.size;
+        upvalues = function.upvalues;
         try {
-            // Update interpreter's environment to new local one and execute statements.
-            this.environment = environment;
+            if (layout.receiver != null) store(layout.receiver, receiver);
+            List<Slot> params = layout.params;
+            if (arguments != null) {
+                for (int i = 0; i < params.size(); i++) {
+                    store(params.get(i), arguments[i]);
+                }
+            } else {
+                if (params.size() > 0) store(params.get(0), a);
+                if (params.size() > 1) store(params.get(1), b);
+                if (params.size() > 2) store(params.get(2), c);
+            }
 
-            for (Stmt statement : statements) {
-                execute(statement);
+            if (Lox.flat) {
+                FlatAst ast = flatBodies.get(function.declaration);
+                if (ast == null) {
+                    ast = FlatAst.encode(this, function.declaration.body);
+                    flatBodies.put(function.declaration, ast);
+                }
+                executeAll(ast, ast.root);
+            } else if (Lox.compile) {
+                Compiler.Action[] body = compiledBodies.get(function.declaration);
+                if (body == null) {
+                    body = new Compiler(this).compile(function.declaration.body);
+                    compiledBodies.put(function.declaration, body);
+                }
+                Compiler.run(body);
+            } else {
+                for (Stmt statement : function.declaration.body) {
+                    execute(statement);
+                }
             }
         } finally {
-            // Restore interpreter's environment to outer one.
-            this.environment = previous;
+            // Clear the frame so popped locals don't stay reachable.
+            Arrays.fill(stack, base, top, null);
+            top = base;
+            frame = previousFrame;
+            upvalues = previousUpvalues;
         }
-                      }
+    }
+
+    void load(Stmt.Function declaration) {
+        /* Parses, resolves and optimizes a lazily parsed body on first call.
+         Errors in it are reported now and stop the program, as they would
+         have before it started had the body been parsed eagerly. */
+        LazyBody body = (LazyBody)declaration.body;
+        if (body.loaded) return;
+
+        // Tasks may call the function for the first time together.
+        synchronized (body) {
+            if (body.loaded) return;
+
+            List<Stmt> statements = new Parser(body.tokens()).parseBody();
+            if (!Lox.hadError) Resolver.resolveBody(this, declaration, statements);
+            if (Lox.hadError) {
+                throw new RuntimeError(declaration.name,
+                    "Can't compile function '" + declaration.name.lexeme + "'.");
+            }
+
+            Stmt.Function loaded = new Stmt.Function(declaration.name, declaration.params, statements);
+            List<Stmt> optimized = new Optimizer(this).optimize(Arrays.asList(loaded));
+            body.addAll(((Stmt.Function)optimized.get(0)).body);
+            body.loaded = true;
+        }
+    }
+
+    private void analyze(Stmt.Function declaration, FrameLayout layout) {
+        /* Like load(), double-checked, as tasks may call the function for
+         the first time together. The analysis rewrites the body's nodes and
+         grows the layout, so it is only marked done once finished: no thread
+         reserves a frame of the old size and then runs the rewritten body. */
+        synchronized (declaration) {
+            if (analyzed.contains(declaration)) return;
+            EscapeAnalysis.analyze(this, declaration, layout);
+            analyzed.add(declaration);
+        }
+    }
+
+    Memo memo(LoxFunction function) {
+        // The function's result cache, or null if it isn't pure.
+        Memo memo = memos.get(function.declaration);
+        if (memo == null || !memo.isCurrent(globals)) {
+            memo = new Memo(this, function);
+            memos.put(function.declaration, memo);
+        }
+        return memo.isPure() ? memo : null;
+    }
+
+    void swap(LoxGenerator.Body generator) {
+        /* Exchanges the running value stack with a generator's, so its
+         frames survive while it is suspended. Called when the generator is
+         resumed and again when it hands back. */
+        Object[] stack = this.stack;
+        this.stack = generator.stack;
+        generator.stack = stack;
+
+        int frame = this.frame;
+        this.frame = generator.frame;
+        generator.frame = frame;
+
+        int top = this.top;
+        this.top = generator.top;
+        generator.top = top;
+
+        Cell[] upvalues = this.upvalues;
+        this.upvalues = generator.upvalues;
+        generator.upvalues = upvalues;
+    }
+
+    void tick(Token token) {
+        /* Spends one tick of the run's fuel, at each loop iteration and
+         call. Only every Budget.CHUNK ticks does this reach the Budget,
+         which throws once the fuel, the time or the memory is used up. */
+        if (--countdown < 0) safepoint(token);
+    }
+
+    private void safepoint(Token token) {
+        if (allocated > 0) {
+            budget.allocate(allocated, token);
+            allocated = 0;
+        }
+        if (spare > 0) {
+            countdown = spare - 1;
+            spare = 0;
+        } else {
+            countdown = budget.refill(token);
+        }
+    }
+
+    void allocate(Allocations kind, long bytes) {
+        /* Counts an allocation, with -Djlox.memory or -Djlox.histogram.
+         Once Budget.BYTES have piled up, the next tick hands them to the
+         Budget, keeping the rest of its fuel chunk for after. Only loops and
+         calls can allocate without bound, so that is soon enough. */
+        kind.add(bytes);
+        if (Lox.memory == 0) return;
+        allocated += bytes;
+        if (allocated >= Budget.BYTES && countdown > 0) {
+            spare = countdown;
+            countdown = 0;
+        }
+    }
+
+    private void reserve(int size) {
+        // Grows the value stack to hold at least 'size' slots.
+        if (size > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(size, stack.length * 2));
+            if (Lox.accounting) allocate(Allocations.FRAMES, Allocations.array(stack.length));
+        }
+    }
+
+    Cell cell(Object value) {
+        // Boxes a captured local.
+        if (Lox.accounting) allocate(Allocations.CELLS, Allocations.CELL);
+        return new Cell(value);
+    }
+
+    String concatenate(String left, String right) {
+        String result = left + right;
+        if (Lox.accounting) allocate(Allocations.STRINGS, Allocations.string(result.length()));
+        return result;
+    }
+
+    private Cell[] capture(FrameLayout layout) {
+        // Copies the cells a new closure captures from the running frame and closure.
+        Cell[] cells = new Cell[layout.captures.size()];
+        for (int i = 0; i < cells.length; i++) {
+            Slot slot = layout.captures.get(i);
+            if (slot.upvalue) {
+                cells[i] = upvalues[slot.index];
+            } else {
+                cells[i] = (Cell)stack[frame + slot.index];
+            }
+        }
+        return cells;
+    }
+
+    private LoxFunction closure(Stmt.Function declaration, boolean isInitializer) {
+        FrameLayout layout = layouts.get(declaration);
+        Cell[] cells = capture(layout);
+        if (Lox.accounting) allocate(Allocations.CLOSURES, Allocations.closure(cells.length));
+        return new LoxFunction(declaration, layout, cells, null, isInitializer);
+    }
+
+    private void declare(Stmt declaration, String name, Object value) {
+        // Defines a new variable in its frame slot, or as a global.
+        Slot slot = declarations.get(declaration);
+        if (slot == null) {
+            globals.define(name, value);
+        } else {
+            store(slot, value);
+        }
+    }
+
+    private void store(Slot slot, Object value) {
+        // Initializes a frame slot, boxing the value if a closure captures it.
+        if (slot.captured) {
+            stack[frame + slot.index] = cell(value);
+        } else {
+            stack[frame + slot.index] = value;
+        }
+    }
+
+    Object read(Slot slot) {
+        if (slot.upvalue) return upvalues[slot.index].value;
+
+        Object value = stack[frame + slot.index];
+        if (slot.captured) return ((Cell)value).value;
+        return value;
+    }
+
+    void write(Slot slot, Object value) {
+        if (slot.upvalue) {
+            upvalues[slot.index].value = value;
+        } else if (slot.captured) {
+            ((Cell)stack[frame + slot.index]).value = value;
+        } else {
+            stack[frame + slot.index] = value;
+        }
+    }
+
+    private void executeAll(FlatAst ast, int list) {
+        int[] lists = ast.lists;
+        int count = lists[list];
+        for (int i = 1; i <= count; i++) {
+            execute(ast, lists[list + i]);
+        }
+    }
+
+    private void execute(FlatAst ast, int node) {
+        // Runs a statement of a FlatAst by switching on its kind.
+        int[] code = ast.code;
+        int a = code[node + 1];
+        int b = code[node + 2];
+        int c = code[node + 3];
+        switch (code[node]) {
+            case FlatAst.EXPRESSION:
+                evaluate(ast, a);
+                return;
+            case FlatAst.PRINT:
+                System.out.println(stringify(evaluate(ast, a)));
+                return;
+            case FlatAst.VAR_LOCAL: {
+                Object value = c < 0 ? null : evaluate(ast, c);
+                stack[frame + a] = b == FlatAst.CELL ? cell(value) : value;
+                return;
+            }
+            case FlatAst.VAR_GLOBAL: {
+                Object value = c < 0 ? null : evaluate(ast, c);
+                globals.define(((Token)ast.constants[a]).lexeme, value);
+                return;
+            }
+            case FlatAst.BLOCK:
+                executeAll(ast, a);
+                return;
+            case FlatAst.IF:
+                if (isTruthy(evaluate(ast, a))) {
+                    execute(ast, b);
+                } else if (c >= 0) {
+                    execute(ast, c);
+                }
+                return;
+            case FlatAst.WHILE:
+                while (isTruthy(evaluate(ast, a))) {
+                    if (Lox.metered) tick((Token)ast.constants[c]);
+                    execute(ast, b);
+                }
+                return;
+            case FlatAst.FOR:
+                if (a >= 0) execute(ast, a);
+                if (c >= 0) {
+                    CountedLoop loop = (CountedLoop)ast.constants[c];
+                    if (read(loop.counter) instanceof Double) {
+                        executeCounted(ast, b, loop);
+                        return;
+                    }
+                }
+                executeFor(ast, b, false);
+                return;
+            case FlatAst.RETURN:
+                throw new Return(a < 0 ? null : evaluate(ast, a));
+            case FlatAst.TAIL_RETURN: {
+                Object callee = evaluate(ast, a);
+                int count = ast.lists[b];
+                Object x = null, y = null, z = null;
+                Object[] arguments = null;
+                if (count > 3) {
+                    arguments = evaluateArguments(ast, b);
+                } else {
+                    if (count > 0) x = evaluate(ast, ast.lists[b + 1]);
+                    if (count > 1) y = evaluate(ast, ast.lists[b + 2]);
+                    if (count > 2) z = evaluate(ast, ast.lists[b + 3]);
+                }
+                Token paren = (Token)ast.constants[c];
+                LoxCallable function = checkCall(paren, callee, count);
+
+                if (function instanceof LoxFunction) {
+                    throw tailCall((LoxFunction)function, x, y, z, arguments);
+                }
+                throw new Return(call(paren, function, count, x, y, z, arguments));
+            }
+            default:
+                execute((Stmt)ast.constants[a]);
+        }
+    }
+
+    private void executeFor(FlatAst ast, int clauses, boolean incrementFirst) {
+        // The flat form of executeFor(); 'clauses' lists condition, increment and body.
+        int condition = ast.lists[clauses + 1];
+        int increment = ast.lists[clauses + 2];
+        int body = ast.lists[clauses + 3];
+        if (incrementFirst) evaluate(ast, increment);
+
+        while (condition < 0 || isTruthy(evaluate(ast, condition))) {
+            if (Lox.metered) tick((Token)ast.constants[ast.lists[clauses + 4]]);
+            execute(ast, body);
+            if (increment >= 0) evaluate(ast, increment);
+        }
+    }
+
+    private void executeCounted(FlatAst ast, int clauses, CountedLoop loop) {
+        // The flat form of executeCounted(), falling back the same way.
+        int condition = ast.lists[clauses + 1];
+        int limitNode = ast.code[condition + 2];
+        Token operator = (Token)ast.constants[ast.code[condition + 3]];
+        int body = ast.lists[clauses + 3];
+        double i = (double)read(loop.counter);
+
+        while (true) {
+            Object limit = evaluate(ast, limitNode);
+            checkNumberOperands(operator, i, limit);
+
+            double n = (double)limit;
+            boolean running;
+            switch (loop.comparison) {
+                case LESS: running = i < n; break;
+                case LESS_EQUAL: running = i <= n; break;
+                case GREATER: running = i > n; break;
+                default: running = i >= n; break;
+            }
+            if (!running) return;
+
+            if (Lox.metered) tick((Token)ast.constants[ast.lists[clauses + 4]]);
+            if (loop.bodyReads) write(loop.counter, i);
+            execute(ast, body);
+
+            if (loop.bodyWrites) {
+                Object counter = read(loop.counter);
+                if (!(counter instanceof Double)) {
+                    executeFor(ast, clauses, true);
+                    return;
+                }
+                i = (double)counter;
+            }
+            i += loop.step;
+        }
+    }
+
+    private Object evaluate(FlatAst ast, int node) {
+        // Evaluates an expression of a FlatAst by switching on its kind.
+        int[] code = ast.code;
+        int a = code[node + 1];
+        int b = code[node + 2];
+        int c = code[node + 3];
+        switch (code[node]) {
+            case FlatAst.CONSTANT:
+                return ast.constants[a];
+            case FlatAst.LOCAL:
+                if (b == FlatAst.FRAME) return stack[frame + a];
+                if (b == FlatAst.CELL) return ((Cell)stack[frame + a]).value;
+                return upvalues[a].value;
+            case FlatAst.GLOBAL:
+                return globals.get((Token)ast.constants[a]);
+            case FlatAst.ASSIGN_LOCAL: {
+                Object value = evaluate(ast, c);
+                if (b == FlatAst.FRAME) {
+                    stack[frame + a] = value;
+                } else if (b == FlatAst.CELL) {
+                    ((Cell)stack[frame + a]).value = value;
+                } else {
+                    upvalues[a].value = value;
+                }
+                return value;
+            }
+            case FlatAst.ASSIGN_GLOBAL: {
+                Object value = evaluate(ast, c);
+                globals.assign((Token)ast.constants[a], value);
+                return value;
+            }
+            case FlatAst.AND: {
+                Object left = evaluate(ast, a);
+                if (!isTruthy(left)) return left;
+                return evaluate(ast, b);
+            }
+            case FlatAst.OR: {
+                Object left = evaluate(ast, a);
+                if (isTruthy(left)) return left;
+                return evaluate(ast, b);
+            }
+            case FlatAst.NOT:
+                return !isTruthy(evaluate(ast, a));
+            case FlatAst.NEGATE: {
+                Object right = evaluate(ast, a);
+                checkNumberOperand((Token)ast.constants[c], right);
+                return -(double)right;
+            }
+            case FlatAst.CALL: {
+                Object callee = evaluate(ast, a);
+                int count = ast.lists[b];
+                Object x = null, y = null, z = null;
+                Object[] arguments = null;
+                if (count > 3) {
+                    arguments = evaluateArguments(ast, b);
+                } else {
+                    if (count > 0) x = evaluate(ast, ast.lists[b + 1]);
+                    if (count > 1) y = evaluate(ast, ast.lists[b + 2]);
+                    if (count > 2) z = evaluate(ast, ast.lists[b + 3]);
+                }
+                Token paren = (Token)ast.constants[c];
+                LoxCallable function = checkCall(paren, callee, count);
+                return call(paren, function, count, x, y, z, arguments);
+            }
+            case FlatAst.GET: {
+                Object object = evaluate(ast, a);
+                Token name = (Token)ast.constants[c];
+                if (object instanceof LoxInstance) return ((LoxInstance)object).get(name);
+                throw new RuntimeError(name, "Only instances have properties.");
+            }
+            case FlatAst.SET: {
+                Object object = evaluate(ast, a);
+                Token name = (Token)ast.constants[c];
+                if (!(object instanceof LoxInstance)) {
+                    throw new RuntimeError(name, "Only instances have fields.");
+                }
+                Object value = evaluate(ast, b);
+                ((LoxInstance)object).set(name, value);
+                return value;
+            }
+            case FlatAst.EXPR:
+                return evaluate((Expr)ast.constants[a]);
+            default:
+                return binary(code[node], (Token)ast.constants[c],
+                              evaluate(ast, a), evaluate(ast, b));
+        }
+    }
+
+    private Object binary(int kind, Token operator, Object left, Object right) {
+        // The flat form of visitBinaryExpr(), after both operands are evaluated.
+        switch (kind) {
+            case FlatAst.NOT_EQUAL: return !isEqual(left, right);
+            case FlatAst.EQUAL: return isEqual(left, right);
+            case FlatAst.ADD:
+                if (left instanceof Double && right instanceof Double) {
+                    return (double)left + (double)right;
+                }
+
+                if (left instanceof String && right instanceof String) {
+                    return concatenate((String)left, (String)right);
+                }
+
+                throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+        }
+
+        checkNumberOperands(operator, left, right);
+        double x = (double)left;
+        double y = (double)right;
+        switch (kind) {
+            case FlatAst.GREATER: return x > y;
+            case FlatAst.GREATER_EQUAL: return x >= y;
+            case FlatAst.LESS: return x < y;
+            case FlatAst.LESS_EQUAL: return x <= y;
+            case FlatAst.SUBTRACT: return x - y;
+            case FlatAst.DIVIDE: return x / y;
+            default: return x * y;
+        }
+    }
+
+    private Object[] evaluateArguments(FlatAst ast, int list) {
+        int[] lists = ast.lists;
+        Object[] arguments = new Object[lists[list]];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = evaluate(ast, lists[list + 1 + i]);
+        }
+        return arguments;
+    }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        // Interprets a block statement (in new environment).
-        executeBlock(stmt.statements, new Environment(environment));
+        // Interprets a block statement. Its locals already have slots in the current frame.
+        for (Stmt statement : stmt.statements) {
+            execute(statement);
+        }
         return null;
     }
 
     @Override
     public Void visitClassStmt(Stmt.Class stmt) {
-        /* Declares class name in current environment, turn the class syntax node
+        /* Declares class name in current scope, turn the class syntax node
          into LoxClass (runtime representation of a class), and store against the named vairable. */
         Object superclass = null;
         if (stmt.superclass != null) {
@@ -144,28 +948,28 @@ class Interpreter implements Expr.Visitor<Object>,
                 throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
             }
         }
-         environment.define(stmt.name.lexeme, null);
+        declare(stmt, stmt.name.lexeme, null);
 
         if (stmt.superclass != null) {
-            // Creates a new environment when there is a superclass.
-            environment = new Environment(environment);
-            environment.define("super", superclass);
+            // Methods capture 'super' from its own slot.
+            store(superclasses.get(stmt), superclass);
         }
 
         Map<String, LoxFunction> methods = new HashMap<>();
         for (Stmt.Function method : stmt.methods) {
-            LoxFunction function = new LoxFunction(method, environment,
+            LoxFunction function = closure(method,
                                 method.name.lexeme.equals("init"));
             methods.put(method.name.lexeme, function);
         }
 
         LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass)superclass, methods);
 
-        if (superclass != null) {
-            environment = environment.enclosing;
-        } 
-
-        environment.assign(stmt.name, klass);
+        Slot slot = declarations.get(stmt);
+        if (slot == null) {
+            globals.assign(stmt.name, klass);
+        } else {
+            write(slot, klass);
+        }
         return null;
     }
 
@@ -176,10 +980,80 @@ class Interpreter implements Expr.Visitor<Object>,
         return null;
     }
 
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        if (stmt.initializer != null) execute(stmt.initializer);
+
+        CountedLoop loop = countedLoops.get(stmt);
+        if (loop != null && read(loop.counter) instanceof Double) {
+            executeCounted(stmt, loop);
+        } else {
+            executeFor(stmt, false);
+        }
+        return null;
+    }
+
+    private void executeFor(Stmt.For stmt, boolean incrementFirst) {
+        // The general loop: condition, body, increment, all on boxed values.
+        if (incrementFirst) evaluate(stmt.increment);
+
+        while (stmt.condition == null || isTruthy(evaluate(stmt.condition))) {
+            if (Lox.metered) tick(stmt.keyword);
+            execute(stmt.body);
+            if (stmt.increment != null) evaluate(stmt.increment);
+        }
+    }
+
+    private void executeCounted(Stmt.For stmt, CountedLoop loop) {
+        /* Runs a counted loop with its counter in a local double. A
+         non-number limit fails the comparison's own operand check, from the
+         value already evaluated. If the body stores a non-number in the
+         counter, the general loop takes over from the increment. */
+        Expr.Binary condition = (Expr.Binary)stmt.condition;
+        double i = (double)read(loop.counter);
+
+        while (true) {
+            Object limit = evaluate(condition.right);
+            checkNumberOperands(condition.operator, i, limit);
+
+            double n = (double)limit;
+            boolean running;
+            switch (loop.comparison) {
+                case LESS: running = i < n; break;
+                case LESS_EQUAL: running = i <= n; break;
+                case GREATER: running = i > n; break;
+                default: running = i >= n; break;
+            }
+            if (!running) return;
+
+            if (Lox.metered) tick(stmt.keyword);
+            if (loop.bodyReads) write(loop.counter, i);
+            execute(stmt.body);
+
+            if (loop.bodyWrites) {
+                Object counter = read(loop.counter);
+                if (!(counter instanceof Double)) {
+                    executeFor(stmt, true);
+                    return;
+                }
+                i = (double)counter;
+            }
+            i += loop.step;
+        }
+    }
+
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        LoxFunction function = new LoxFunction(stmt, environment, false);
-        environment.define(stmt.name.lexeme, function);
+        // The name is declared first so a local function can capture itself.
+        declare(stmt, stmt.name.lexeme, null);
+        LoxFunction function = closure(stmt, false);
+
+        Slot slot = declarations.get(stmt);
+        if (slot == null) {
+            globals.define(stmt.name.lexeme, function);
+        } else {
+            write(slot, function);
+        }
         return null;
     }
 
@@ -204,6 +1078,28 @@ class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
+        if (tailCalls.contains(stmt)) {
+            // Lox functions in tail position unwind to the caller's trampoline.
+            Expr.Call call = (Expr.Call)stmt.value;
+            Object callee = evaluate(call.callee);
+            int count = call.arguments.size();
+            Object a = null, b = null, c = null;
+            Object[] arguments = null;
+            if (count > 3) {
+                arguments = evaluateArguments(call.arguments);
+            } else {
+                if (count > 0) a = evaluate(call.arguments.get(0));
+                if (count > 1) b = evaluate(call.arguments.get(1));
+                if (count > 2) c = evaluate(call.arguments.get(2));
+            }
+            LoxCallable function = checkCall(call.paren, callee, count);
+
+            if (function instanceof LoxFunction) {
+                throw tailCall((LoxFunction)function, a, b, c, arguments);
+            }
+            throw new Return(call(call.paren, function, count, a, b, c, arguments));
+        }
+
         Object value = null;
         if (stmt.value != null) value = evaluate(stmt.value);
 
@@ -213,18 +1109,72 @@ class Interpreter implements Expr.Visitor<Object>,
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
         // Interprets a variable declaration statment.
+        if (stmt.scalar != null) {
+            declareScalar(stmt, stmt.scalar);
+            return null;
+        }
+
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme, value);
+        declare(stmt, stmt.name.lexeme, value);
+        return null;
+    }
+
+    private void declareScalar(Stmt.Var stmt, ScalarObject scalar) {
+        /* Runs 'var p = C(...)' for a local EscapeAnalysis found never
+         escapes. When the class allows, its fields go to frame slots and no
+         instance is made; otherwise the call runs as usual. */
+        Expr.Call call = (Expr.Call)stmt.initializer;
+        Object callee = evaluate(call.callee);
+        if (!scalar.accepts(this, callee)) {
+            // The callee is a name, so evaluating it again is harmless.
+            declare(stmt, stmt.name.lexeme, evaluate(call));
+            return;
+        }
+
+        int count = call.arguments.size();
+        Object a = null, b = null, c = null;
+        Object[] arguments = null;
+        if (count > 3) {
+            arguments = evaluateArguments(call.arguments);
+        } else {
+            if (count > 0) a = evaluate(call.arguments.get(0));
+            if (count > 1) b = evaluate(call.arguments.get(1));
+            if (count > 2) c = evaluate(call.arguments.get(2));
+        }
+        checkCall(call.paren, callee, count);
+
+        int[] params = scalar.params;
+        for (int i = 0; i < params.length; i++) {
+            Object value;
+            switch (params[i]) {
+                case -1: value = ScalarObject.ABSENT; break;
+                case 0: value = arguments == null ? a : arguments[0]; break;
+                case 1: value = arguments == null ? b : arguments[1]; break;
+                case 2: value = arguments == null ? c : arguments[2]; break;
+                default: value = arguments[params[i]]; break;
+            }
+            stack[frame + scalar.slots[i]] = value;
+        }
+        declare(stmt, stmt.name.lexeme, scalar);
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        Object value = null;
+        if (stmt.value != null) value = evaluate(stmt.value);
+
+        generator.yield(value);
         return null;
     }
 
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
         while (isTruthy(evaluate(stmt.condition))) {
+            if (Lox.metered) tick(stmt.keyword);
             execute(stmt.body);
         }
         return null;
@@ -234,9 +1184,8 @@ class Interpreter implements Expr.Visitor<Object>,
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
 
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        if (expr.slot != null) {
+            write(expr.slot, value);
         } else {
             globals.assign(expr.name, value);
         }
@@ -264,39 +1213,38 @@ class Interpreter implements Expr.Visitor<Object>,
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
         // Interprets variable expression.
-        return lookUpVariable(expr.name, expr);
+        return lookUpVariable(expr.name, expr.slot);
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
+    private Object lookUpVariable(Token name, Slot slot) {
+        if (slot != null) {
+            return read(slot);
         } else {
             return globals.get(name);
         }
     }
 
-    private void checkNumberOperand(Token operator, Object operand) {
+    void checkNumberOperand(Token operator, Object operand) {
         // Checks if operand for Unary operator is a number.
         if (operand instanceof Double) return;
         throw new RuntimeError(operator, "Operand must be a number.");
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right) {
+    void checkNumberOperands(Token operator, Object left, Object right) {
         // Checks if operands for Binary operators are numbers. 
         if (left instanceof Double && right instanceof Double) return;
 
         throw new RuntimeError(operator, "Operands must be numbers.");
     }
 
-    private boolean isTruthy(Object object) {
+    boolean isTruthy(Object object) {
         // Checks truthiness of an Object.
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean)object;
         return true;
     }
 
-    private boolean isEqual(Object a, Object b) {
+    boolean isEqual(Object a, Object b) {
         // Checks if two Objects are equal.
         if (a == null && b == null) return true;
         if (a == null) return false;
@@ -304,7 +1252,7 @@ class Interpreter implements Expr.Visitor<Object>,
         return a.equals(b);
     }
 
-    private String stringify(Object object) {
+    String stringify(Object object) {
         // Turns a Double into a String.
         if (object == null) return "nil";
 
@@ -350,7 +1298,7 @@ class Interpreter implements Expr.Visitor<Object>,
                 }
 
                 if (left instanceof String && right instanceof String) {
-                    return (String)left + (String)right;
+                    return concatenate((String)left, (String)right);
                 }
 
                 throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
@@ -370,26 +1318,112 @@ class Interpreter implements Expr.Visitor<Object>,
     @Override
     public Object visitCallExpr(Expr.Call expr) {
         /* Interprets a call expression. Evaluates the
-         callee (usually a function identifier). Then collects arguments into a list
-         before making the function call. */
+         callee (usually a function identifier). Then evaluates up to three
+         arguments into locals, or more into an array, before making the
+         function call. */
+        if (expr.callee.kind == Expr.SUPER) return callSuper(expr, (Expr.Super)expr.callee);
+
         Object callee = evaluate(expr.callee);
+        int count = expr.arguments.size();
+        if (Lox.callSites) {
+            List<Object> arguments = Arrays.asList(evaluateArguments(expr.arguments));
+            if (expr.site == null) expr.site = new LoxCallSite(expr.paren);
+            return expr.site.call(callee, this, arguments);
+        }
 
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+        Object a = null, b = null, c = null;
+        Object[] arguments = null;
+        if (count > 3) {
+            arguments = evaluateArguments(expr.arguments);
+        } else {
+            if (count > 0) a = evaluate(expr.arguments.get(0));
+            if (count > 1) b = evaluate(expr.arguments.get(1));
+            if (count > 2) c = evaluate(expr.arguments.get(2));
         }
+        return call(expr.paren, checkCall(expr.paren, callee, count), count, a, b, c, arguments);
+    }
+
+    private Object callSuper(Expr.Call expr, Expr.Super callee) {
+        // Calls 'super.m(...)' with the current 'this' without binding the method.
+        LoxFunction method = superMethod(callee);
+        LoxInstance receiver = (LoxInstance)read(callee.receiver);
 
+        int count = expr.arguments.size();
+        Object a = null, b = null, c = null;
+        Object[] arguments = null;
+        if (count > 3) {
+            arguments = evaluateArguments(expr.arguments);
+        } else {
+            if (count > 0) a = evaluate(expr.arguments.get(0));
+            if (count > 1) b = evaluate(expr.arguments.get(1));
+            if (count > 2) c = evaluate(expr.arguments.get(2));
+        }
+        checkCall(expr.paren, method, count);
+        try {
+            return method.call(this, receiver, a, b, c, arguments);
+        } catch (StackOverflowError error) {
+            throw stackOverflow(expr.paren);
+        }
+    }
+
+    private Object[] evaluateArguments(List<Expr> expressions) {
+        Object[] arguments = new Object[expressions.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = evaluate(expressions.get(i));
+        }
+        return arguments;
+    }
+
+    Object call(Token paren, LoxCallable function, int count, Object a, Object b, Object c,
+                Object[] arguments) {
+        // Calls with up to three arguments go through the fixed-arity entry points.
+        try {
+            switch (count) {
+                case 0: return function.call0(this);
+                case 1: return function.call1(this, a);
+                case 2: return function.call2(this, a, b);
+                case 3: return function.call3(this, a, b, c);
+                default: return function.call(this, arguments);
+            }
+        } catch (NativeError error) {
+            throw error.at(paren);
+        } catch (StackOverflowError error) {
+            throw stackOverflow(paren);
+        }
+    }
+
+    static RuntimeError stackOverflow(Token paren) {
+        /* The call at 'paren' ran out of Java stack (see -Djlox.stack). The
+         innermost call site catches it, and the frames above unwind as for
+         any runtime error. If making the error overflows too, the next
+         call site out tries. */
+        return new RuntimeError(paren, "Stack overflow.");
+    }
+
+    TailCall tailCall(LoxFunction function, Object a, Object b, Object c,
+                      Object[] arguments) {
+        // Fills in the reused TailCall for a return in tail position to throw.
+        tailCall.function = function;
+        tailCall.a = a;
+        tailCall.b = b;
+        tailCall.c = c;
+        tailCall.arguments = arguments;
+        return tailCall;
+    }
+
+    LoxCallable checkCall(Token paren, Object callee, int count) {
+        // Checks the callee is callable with this many arguments.
         if (!(callee instanceof LoxCallable)) {
-            throw new RuntimeError(expr.paren, "Can only call functions and classes.");
+            throw new RuntimeError(paren, "Can only call functions and classes.");
         }
 
         LoxCallable function = (LoxCallable)callee;
-        if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expected " + 
+        if (count != function.arity()) {
+            throw new RuntimeError(paren, "Expected " + 
                 function.arity() + " arguments but got " +
-                arguments.size() + ".");
+                count + ".");
         }
-        return function.call(this, arguments);
+        return function;
     }
 
     @Override
@@ -398,6 +1432,13 @@ class Interpreter implements Expr.Visitor<Object>,
         if (object instanceof LoxInstance) {
             return ((LoxInstance) object).get(expr.name);
             }
+        if (expr.scalar != null && object == expr.scalar) {
+            Object value = stack[frame + expr.field];
+            if (value == ScalarObject.ABSENT) {
+                throw new RuntimeError(expr.name, "Undefined property '" + expr.name.lexeme + "'.");
+            }
+            return value;
+        }
             
         throw new RuntimeError(expr.name, "Only instances have properties.");
         }
@@ -0,0 +1,76 @@
+package jlox;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class InterpreterStats implements InterpreterStatsMBean {
+    /* Process-wide counters for interpreter internals. LongAdder keeps the
+     increments cheap on the hot paths while JMX reads them from another thread. */
+    static final LongAdder calls = new LongAdder();
+    static final LongAdder cells = new LongAdder();
+    static final LongAdder instances = new LongAdder();
+    static final LongAdder propertyLookups = new LongAdder();
+    static final LongAdder resumes = new LongAdder();
+    static final LongAdder memoHits = new LongAdder();
+    static final LongAdder memoMisses = new LongAdder();
+
+    static void register() {
+        // Publishes the counters on the platform MBean server.
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName("jlox:type=InterpreterStats");
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new InterpreterStats(), name);
+            }
+        } catch (JMException e) {
+            System.err.println("Could not register interpreter stats: " + e.getMessage());
+        }
+    }
+
+    static void print() {
+        // Dumps the counters to stderr, for -Djlox.stats=true runs.
+        System.err.println("calls: " + calls.sum());
+        System.err.println("cells allocated: " + cells.sum());
+        System.err.println("instances created: " + instances.sum());
+        System.err.println("property lookups: " + propertyLookups.sum());
+        System.err.println("generator resumes: " + resumes.sum());
+        System.err.println("memo hits: " + memoHits.sum());
+        System.err.println("memo misses: " + memoMisses.sum());
+    }
+
+    @Override
+    public long getCalls() { return calls.sum(); }
+
+    @Override
+    public long getCellsAllocated() { return cells.sum(); }
+
+    @Override
+    public long getInstancesCreated() { return instances.sum(); }
+
+    @Override
+    public long getPropertyLookups() { return propertyLookups.sum(); }
+
+    @Override
+    public long getGeneratorResumes() { return resumes.sum(); }
+
+    @Override
+    public long getMemoHits() { return memoHits.sum(); }
+
+    @Override
+    public long getMemoMisses() { return memoMisses.sum(); }
+
+    @Override
+    public void reset() {
+        calls.reset();
+        cells.reset();
+        instances.reset();
+        propertyLookups.reset();
+        resumes.reset();
+        memoHits.reset();
+        memoMisses.reset();
+    }
+}
@@ -0,0 +1,13 @@
+package jlox;
+
+public interface InterpreterStatsMBean {
+    // Counters exposed over JMX as "jlox:type=InterpreterStats".
+    long getCalls();
+    long getCellsAllocated();
+    long getInstancesCreated();
+    long getPropertyLookups();
+    long getGeneratorResumes();
+    long getMemoHits();
+    long getMemoMisses();
+    void reset();
+}
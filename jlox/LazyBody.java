@@ -0,0 +1,37 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class LazyBody extends ArrayList<Stmt> {
+    /* The body of a function the Parser only brace-matched. It stays empty
+     until the function is first called, when the Interpreter parses and
+     resolves the recorded tokens and adds the statements to this list, so
+     the Stmt.Function holding it never changes. */
+    private final List<Token> tokens;
+    private final int start;
+    private final int end;
+    // Written last, so a thread that sees it set sees the statements too.
+    volatile boolean loaded = false;
+
+    // What the Resolver knew where the function was declared.
+    FrameLayout layout;
+    boolean method = false;
+    boolean initializer = false;
+    Slot superclass;
+    Slot superUpvalue;
+
+    LazyBody(List<Token> tokens, int start, int end) {
+        this.tokens = tokens;
+        this.start = start;
+        this.end = end;
+    }
+
+    List<Token> tokens() {
+        // The body's tokens, through its closing '}', followed by EOF.
+        List<Token> body = new ArrayList<>(tokens.subList(start, end));
+        Token last = body.get(body.size() - 1);
+        body.add(new Token(TokenType.EOF, "", null, last.line));
+        return body;
+    }
+}
@@ -3,6 +3,7 @@ package jlox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -12,8 +13,53 @@ public class Lox {
     private static final Interpreter interpreter = new Interpreter();
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
+    // -Djlox.strict=true parses every function body up front, reporting all syntax errors.
+    static final boolean strict = Boolean.getBoolean("jlox.strict");
+    // -Djlox.onepass=true resolves names while parsing instead of in a separate pass.
+    static final boolean onePass = Boolean.getBoolean("jlox.onepass");
+    // -Djlox.flat=true runs programs from a packed int[] form of the AST.
+    static final boolean flat = Boolean.getBoolean("jlox.flat");
+    // -Djlox.compile=true runs programs as trees of Java closures compiled from the AST.
+    static final boolean compile = Boolean.getBoolean("jlox.compile");
+    // -Djlox.callsites=true links each call expression to its callees through a MethodHandle chain.
+    static final boolean callSites = Boolean.getBoolean("jlox.callsites");
+    // -Djlox.scalars=true keeps the fields of instances that never leave a function in its frame.
+    static final boolean scalars = Boolean.getBoolean("jlox.scalars");
+    // -Djlox.memo=N caches up to N results of each function that only computes from its arguments.
+    static final int memoSize = Integer.getInteger("jlox.memo", 0);
+    // -Djlox.dispatch=switch walks the tree by switching on node kind tags instead of accept().
+    static final boolean switchDispatch = "switch".equals(System.getProperty("jlox.dispatch"));
+    // -Djlox.stack=N runs programs, tasks and generators on threads with N MB Java stacks, for deep recursion.
+    static final int stackMegabytes = Integer.getInteger("jlox.stack", 2);
+    // -Djlox.generators=N fails a run that has more than N unfinished generators started at once.
+    static final int generators = Integer.getInteger("jlox.generators", 1024);
+    // -Djlox.fuel=N stops a run after N loop iterations and calls.
+    static final long fuel = Long.getLong("jlox.fuel", 0);
+    // -Djlox.timeout=MS stops a run after MS milliseconds.
+    static final long timeout = Long.getLong("jlox.timeout", 0);
+    // -Djlox.memory=MB stops a run once it has allocated MB megabytes of Lox values.
+    static final long memory = Long.getLong("jlox.memory", 0) * 1024 * 1024;
+    // -Djlox.histogram=true prints what was allocated by class and kind after a script.
+    static final boolean histogram = Boolean.getBoolean("jlox.histogram");
+    static final boolean metered = fuel > 0 || timeout > 0 || memory > 0;
+    static final boolean accounting = memory > 0 || histogram;
     // Lox entry point. Either run a file or an interactive prompt.
-    public static void main(String[] args) throws IOException {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        InterpreterStats.register();
+        /* Each Lox call nests over a dozen Java frames, so the main thread's
+         1 MB stack would cap recursion at a few hundred calls. */
+        Thread thread = new Thread(null, () -> {
+            try {
+                start(args);
+            } catch (IOException error) {
+                throw new UncheckedIOException(error);
+            }
+        }, "jlox", stackMegabytes * 1024L * 1024L);
+        thread.start();
+        thread.join();
+    }
+
+    private static void start(String[] args) throws IOException {
         if (args.length > 1) {
             System.out.println("Usage: jlox [script]");
             System.exit(64);
@@ -27,6 +73,8 @@ public class Lox {
     private static void runFile(String path) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(path));
         run(new String(bytes, Charset.defaultCharset()));
+        if (Boolean.getBoolean("jlox.stats")) InterpreterStats.print();
+        if (histogram) Allocations.print();
 
         // Indicate an error in the exit code.
         if (hadError) System.exit(65);
@@ -48,21 +96,47 @@ public class Lox {
 
 
     private static void run(String source) {
+        // Each phase is timed with a JFR event so recordings show where a run went.
+        LoxEvents.Phase phase = new LoxEvents.Phase("scan");
+        phase.begin();
         Scanner scanner = new Scanner(source);
         List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
+        phase.commit();
+
+        phase = new LoxEvents.Phase("parse");
+        phase.begin();
+        Resolver resolver = new Resolver(interpreter);
+        Parser parser = onePass
+            ? new Parser(tokens, !strict, resolver)
+            : new Parser(tokens, !strict);
         List<Stmt> statements = parser.parse();
+        phase.commit();
 
         // Stop if there was a syntax error.
         if (hadError) return;
 
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
+        phase = new LoxEvents.Phase("resolve");
+        phase.begin();
+        if (onePass) {
+            // Names were resolved while parsing; only the errors are left.
+            resolver.reportErrors();
+        } else {
+            resolver.resolve(statements);
+        }
+        phase.commit();
 
         // Stop if there was a syntax error.
         if (hadError) return;
 
+        phase = new LoxEvents.Phase("optimize");
+        phase.begin();
+        statements = new Optimizer(interpreter).optimize(statements);
+        phase.commit();
+
+        phase = new LoxEvents.Phase("interpret");
+        phase.begin();
         interpreter.interpret(statements);
+        phase.commit();
     }
     
     // Basic error handling
@@ -85,6 +159,13 @@ public class Lox {
     }
 
     static void runtimeError(RuntimeError error) {
+        LoxEvents.RuntimeError event = new LoxEvents.RuntimeError();
+        if (event.isEnabled()) {
+            event.message = error.getMessage();
+            event.line = error.token.line;
+            event.commit();
+        }
+
         System.err.println(error.getMessage() + "\n [line " + error.token.line + "]");
         hadRuntimeError = true;
     }
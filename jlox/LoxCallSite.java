@@ -0,0 +1,110 @@
+package jlox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.List;
+
+class LoxCallSite extends MutableCallSite {
+    /* The call site of one call expression. Its target starts as a
+     fallback that checks the callee as Interpreter.checkCall() does, then
+     links it in front of the chain behind a guard: the same function
+     declaration (bound methods and closures are new objects each time),
+     or the same class or native. The check is not repeated while the guard
+     holds, since the argument count is fixed by the syntax. After
+     MAX_TARGETS callees the site gives up and checks every call. */
+    private static final int MAX_TARGETS = 4;
+    private static final MethodType TYPE = MethodType.methodType(
+        Object.class, Object.class, Interpreter.class, List.class);
+
+    private static final MethodHandle FALLBACK;
+    private static final MethodHandle MEGAMORPHIC;
+    private static final MethodHandle SAME_DECLARATION;
+    private static final MethodHandle SAME_CALLEE;
+    private static final MethodHandle CALL_FUNCTION;
+    private static final MethodHandle CALL_CLASS;
+    private static final MethodHandle CALL;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodType call = MethodType.methodType(Object.class, Interpreter.class, List.class);
+        MethodType test = MethodType.methodType(boolean.class, Object.class, Object.class);
+        try {
+            FALLBACK = lookup.findVirtual(LoxCallSite.class, "fallback", TYPE);
+            MEGAMORPHIC = lookup.findVirtual(LoxCallSite.class, "megamorphic", TYPE);
+            SAME_DECLARATION = lookup.findStatic(LoxCallSite.class, "sameDeclaration",
+                MethodType.methodType(boolean.class, Stmt.Function.class, Object.class));
+            SAME_CALLEE = lookup.findStatic(LoxCallSite.class, "sameCallee", test);
+            CALL_FUNCTION = lookup.findVirtual(LoxFunction.class, "call", call).asType(TYPE);
+            CALL_CLASS = lookup.findVirtual(LoxClass.class, "call", call).asType(TYPE);
+            CALL = lookup.findVirtual(LoxCallable.class, "call", call).asType(TYPE);
+        } catch (ReflectiveOperationException error) {
+            throw new ExceptionInInitializerError(error);
+        }
+    }
+
+    private final Token paren;
+    private final MethodHandle invoker;
+    private int targets = 0;
+
+    LoxCallSite(Token paren) {
+        super(TYPE);
+        this.paren = paren;
+        setTarget(FALLBACK.bindTo(this));
+        invoker = dynamicInvoker();
+    }
+
+    Object call(Object callee, Interpreter interpreter, List<Object> arguments) {
+        try {
+            return (Object)invoker.invokeExact(callee, interpreter, arguments);
+        } catch (NativeError error) {
+            throw error.at(paren);
+        } catch (StackOverflowError error) {
+            throw Interpreter.stackOverflow(paren);
+        } catch (RuntimeException | Error error) {
+            // Return, TailCall and RuntimeError pass through unchanged.
+            throw error;
+        } catch (Throwable error) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    private Object fallback(Object callee, Interpreter interpreter, List<Object> arguments) {
+        LoxCallable function = interpreter.checkCall(paren, callee, arguments.size());
+
+        if (targets == MAX_TARGETS) {
+            setTarget(MEGAMORPHIC.bindTo(this));
+        } else {
+            MethodHandle test;
+            MethodHandle target;
+            if (function instanceof LoxFunction) {
+                test = SAME_DECLARATION.bindTo(((LoxFunction)function).declaration);
+                target = CALL_FUNCTION;
+            } else if (function instanceof LoxClass) {
+                test = SAME_CALLEE.bindTo(function);
+                target = CALL_CLASS;
+            } else {
+                test = SAME_CALLEE.bindTo(function);
+                target = CALL;
+            }
+            setTarget(MethodHandles.guardWithTest(test, target, getTarget()));
+            targets++;
+        }
+
+        return function.call(interpreter, arguments);
+    }
+
+    private Object megamorphic(Object callee, Interpreter interpreter, List<Object> arguments) {
+        return interpreter.checkCall(paren, callee, arguments.size()).call(interpreter, arguments);
+    }
+
+    private static boolean sameDeclaration(Stmt.Function declaration, Object callee) {
+        return callee instanceof LoxFunction &&
+            ((LoxFunction)callee).declaration == declaration;
+    }
+
+    private static boolean sameCallee(Object expected, Object callee) {
+        return callee == expected;
+    }
+}
@@ -1,8 +1,34 @@
 package jlox;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 interface LoxCallable {
     int arity();
     Object call(Interpreter interpreter, List<Object> arguments);
-}
\ No newline at end of file
+
+    /* Fixed-arity entry points, so a call with up to three arguments
+     passes them without building a list. LoxFunction and LoxClass
+     implement them directly; the defaults suit natives that don't care. */
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, Collections.emptyList());
+    }
+
+    default Object call1(Interpreter interpreter, Object a) {
+        return call(interpreter, Collections.singletonList(a));
+    }
+
+    default Object call2(Interpreter interpreter, Object a, Object b) {
+        return call(interpreter, Arrays.asList(a, b));
+    }
+
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return call(interpreter, Arrays.asList(a, b, c));
+    }
+
+    default Object call(Interpreter interpreter, Object[] arguments) {
+        // Any number of arguments.
+        return call(interpreter, Arrays.asList(arguments));
+    }
+}
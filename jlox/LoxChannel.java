@@ -0,0 +1,51 @@
+package jlox;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+
+class LoxChannel {
+    /* A queue of values passed between tasks, made by channel(capacity).
+     send() waits while it holds 'capacity' values and receive() while it
+     is empty; with a capacity of 0 each send() waits for a receive(). */
+    // Stands in for nil, which the queues can't hold.
+    private static final Object NIL = new Object();
+    private final BlockingQueue<Object> queue;
+
+    LoxChannel(int capacity) {
+        queue = capacity == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(capacity);
+    }
+
+    void send(Object value) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(value == null ? NIL : value);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    Object receive() {
+        boolean interrupted = false;
+        Object value;
+        while (true) {
+            try {
+                value = queue.take();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        return value == NIL ? null : value;
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+}
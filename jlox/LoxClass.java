@@ -1,5 +1,6 @@
 package jlox;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -8,24 +9,35 @@ import javax.swing.event.ListSelectionEvent;
 class LoxClass implements LoxCallable {
     final String name;
     final LoxClass superclass;
+    /* Every method the class responds to, inherited ones included, so a
+     lookup is one probe however deep the hierarchy. Never changed after
+     construction. */
     private final Map<String, LoxFunction> methods;
+    // Looked up once, as every instantiation needs them.
+    private final LoxFunction initializer;
+    private final int arity;
+    /* How many fields the initializer left on the last instance, so the
+     next one is allocated with room for them. */
+    private int expectedFields = 0;
+    // What instances of this class took, with -Djlox.memory or -Djlox.histogram.
+    private final Allocations allocations;
 
     LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
         this.superclass = superclass;
         this.name = name;
-        this.methods = methods;
-    }
+        allocations = Lox.accounting ? new Allocations(name) : null;
 
-    LoxFunction findMethod(String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name);
-        }
+        Map<String, LoxFunction> table = new HashMap<>();
+        if (superclass != null) table.putAll(superclass.methods);
+        table.putAll(methods);
+        this.methods = table;
 
-        if (superclass != null) {
-            return superclass.findMethod(name);
-        }
+        initializer = table.get("init");
+        arity = initializer == null ? 0 : initializer.arity();
+    }
 
-        return null;
+    LoxFunction findMethod(String name) {
+        return methods.get(name);
     }
 
     @Override
@@ -36,10 +48,55 @@ class LoxClass implements LoxCallable {
     @Override
     public Object call(Interpreter interpreter,
                         List<Object> arguments) {
-        LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = findMethod("init");
+        return instantiate(interpreter, null, null, null, arguments.toArray());
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        return instantiate(interpreter, null, null, null, arguments);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return instantiate(interpreter, null, null, null, null);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        return instantiate(interpreter, a, null, null, null);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        return instantiate(interpreter, a, b, null, null);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return instantiate(interpreter, a, b, c, null);
+    }
+
+    private Object instantiate(Interpreter interpreter, Object a, Object b, Object c,
+                               Object[] arguments) {
+        LoxEvents.Instantiation event = new LoxEvents.Instantiation();
+        event.begin();
+        InterpreterStats.instances.increment();
+
+        LoxInstance instance = new LoxInstance(this, expectedFields);
         if (initializer != null) { // When a class is called look for init method.
-            initializer.bind(instance).call(interpreter, arguments);
+            // The instance goes straight in as 'this'; no bound copy is made.
+            initializer.call(interpreter, instance, a, b, c, arguments);
+            expectedFields = instance.fieldCount();
+        }
+        if (Lox.accounting) {
+            // Fields the initializer didn't add aren't counted.
+            interpreter.allocate(allocations, Allocations.instance(instance.fieldCount()));
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.className = name;
+            event.commit();
         }
         return instance;
     }
@@ -47,8 +104,6 @@ class LoxClass implements LoxCallable {
     @Override
     public int arity() {
         // Class arity matches the arity of the initializer, if there is one.
-        LoxFunction initializer = findMethod("init");
-        if (initializer == null) return 0;
-        return initializer.arity();
+        return arity;
     }
 }
\ No newline at end of file
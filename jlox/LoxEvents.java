@@ -0,0 +1,64 @@
+package jlox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+final class LoxEvents {
+    /* Java Flight Recorder events for the interpreter's hot paths.
+     Thresholds are defaults only and can be overridden in a recording's
+     settings, e.g. "jlox.Call#threshold=0 ms". */
+    private LoxEvents() {}
+
+    @Name("jlox.Call")
+    @Label("Lox Function Call")
+    @Category("Lox")
+    @Description("Execution of a Lox function or method.")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static class Call extends Event {
+        @Label("Function")
+        String function;
+    }
+
+    @Name("jlox.Instantiation")
+    @Label("Lox Instantiation")
+    @Category("Lox")
+    @Description("Construction of a Lox instance via its class, including init.")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static class Instantiation extends Event {
+        @Label("Class")
+        String className;
+    }
+
+    @Name("jlox.RuntimeError")
+    @Label("Lox Runtime Error")
+    @Category("Lox")
+    @StackTrace(false)
+    static class RuntimeError extends Event {
+        @Label("Message")
+        String message;
+
+        @Label("Line")
+        int line;
+    }
+
+    @Name("jlox.Phase")
+    @Label("Lox Phase")
+    @Category("Lox")
+    @Description("One front end or execution phase of Lox.run.")
+    @StackTrace(false)
+    static class Phase extends Event {
+        @Label("Phase")
+        String phase;
+
+        Phase(String phase) {
+            this.phase = phase;
+        }
+    }
+}
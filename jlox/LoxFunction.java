@@ -3,21 +3,25 @@ package jlox;
 import java.util.List;
 
 class LoxFunction implements LoxCallable{
-    private final Stmt.Function declaration;
-    private final Environment closure;
+    final Stmt.Function declaration;
+    final FrameLayout layout;
+    // Flat closure: one cell per captured variable, not the whole enclosing scope chain.
+    final Cell[] upvalues;
+    final LoxInstance receiver;
     private final boolean isInitializer;
 
-    LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+    LoxFunction(Stmt.Function declaration, FrameLayout layout, Cell[] upvalues,
+                LoxInstance receiver, boolean isInitializer) {
         this.isInitializer = isInitializer;
-        this.closure = closure;
+        this.layout = layout;
+        this.upvalues = upvalues;
+        this.receiver = receiver;
         this.declaration = declaration;
     }
 
     LoxFunction bind(LoxInstance instance) {
         // Binds "this" to the object the method is accessed from.
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new LoxFunction(declaration, environment, isInitializer);
+        return new LoxFunction(declaration, layout, upvalues, instance, isInitializer);
     }
 
     @Override
@@ -33,22 +37,128 @@ class LoxFunction implements LoxCallable{
     @Override
     public Object call(Interpreter interpreter,
                         List<Object> arguments) {
-        // Calls a LoxFunction and assigns parameters in its own environment.
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme,
-                                arguments.get(i));
+        return call(interpreter, receiver, null, null, null, arguments.toArray());
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        if (Lox.memoSize > 0 && receiver == null) {
+            return callMemoized(interpreter, null, null, null, arguments);
         }
-        // Use try-catch block to pull out return value from call stack, otherwise return nil.
-        try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            if (isInitializer) return closure.getAt(0, "this");
-            return returnValue.value;
+        return execute(interpreter, receiver, null, null, null, arguments);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        if (Lox.memoSize > 0 && receiver == null) {
+            return callMemoized(interpreter, null, null, null, null);
+        }
+        return execute(interpreter, receiver, null, null, null, null);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        if (Lox.memoSize > 0 && receiver == null) {
+            return callMemoized(interpreter, a, null, null, null);
+        }
+        return execute(interpreter, receiver, a, null, null, null);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        if (Lox.memoSize > 0 && receiver == null) {
+            return callMemoized(interpreter, a, b, null, null);
         }
+        return execute(interpreter, receiver, a, b, null, null);
+    }
 
-        if (isInitializer) return closure.getAt(0, "this"); 
-        // above overrides return value is the function is an initializer.
-        return null;
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        if (Lox.memoSize > 0 && receiver == null) {
+            return callMemoized(interpreter, a, b, c, null);
+        }
+        return execute(interpreter, receiver, a, b, c, null);
+    }
+
+    Object call(Interpreter interpreter, LoxInstance receiver,
+                Object a, Object b, Object c, Object[] arguments) {
+        /* Calls with 'receiver' as 'this', so a method can be called without
+         binding it first. Arguments come in 'a' to 'c', or all in
+         'arguments' past three. A pure function's result may come from its
+         Memo instead. The callN() entry points repeat this rather than call
+         it, to keep one Java frame less per Lox call. */
+        if (Lox.memoSize > 0 && receiver == null) {
+            return callMemoized(interpreter, a, b, c, arguments);
+        }
+        return execute(interpreter, receiver, a, b, c, arguments);
+    }
+
+    private Object callMemoized(Interpreter interpreter,
+                                Object a, Object b, Object c, Object[] arguments) {
+        Memo memo = interpreter.memo(this);
+        List<Object> key = memo == null ? null
+            : Memo.key(declaration.params.size(), a, b, c, arguments);
+        if (key == null) return execute(interpreter, null, a, b, c, arguments);
+
+        Object value = memo.get(key);
+        if (value != Memo.MISSING) {
+            InterpreterStats.memoHits.increment();
+            return value;
+        }
+        InterpreterStats.memoMisses.increment();
+        value = execute(interpreter, null, a, b, c, arguments);
+        memo.put(key, value);
+        return value;
+    }
+
+    private Object execute(Interpreter interpreter, LoxInstance receiver,
+                           Object a, Object b, Object c, Object[] arguments) {
+        /* Calls a LoxFunction with its parameters in a new interpreter frame.
+         A tail call replaces the function and arguments and loops, so tail
+         recursion runs in constant Java stack. Records the call for JMX and,
+         when over the JFR threshold, as a jlox.Call event. This is one Java
+         frame rather than two, as every frame per call costs recursion depth. */
+        LoxEvents.Call event = new LoxEvents.Call();
+        event.begin();
+        InterpreterStats.calls.increment();
+        LoxFunction function = this;
+        try {
+            while (true) {
+                // A generator function's body only runs once the generator is called.
+                if (function.declaration.body instanceof LazyBody) {
+                    interpreter.load(function.declaration);
+                }
+                if (function.layout.generator) {
+                    return new LoxGenerator(interpreter, function, receiver, a, b, c, arguments);
+                }
+
+                // Use try-catch block to pull out return value from call stack, otherwise return nil.
+                try {
+                    interpreter.executeFunction(function, receiver, a, b, c, arguments);
+                } catch (Return returnValue) {
+                    if (function.isInitializer) return receiver;
+                    return returnValue.value;
+                } catch (TailCall tailCall) {
+                    function = tailCall.function;
+                    receiver = function.receiver;
+                    a = tailCall.a;
+                    b = tailCall.b;
+                    c = tailCall.c;
+                    arguments = tailCall.arguments;
+                    InterpreterStats.calls.increment();
+                    continue;
+                }
+
+                if (function.isInitializer) return receiver;
+                // above overrides return value is the function is an initializer.
+                return null;
+            }
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.function = declaration.name.lexeme;
+                event.commit();
+            }
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,206 @@
+package jlox;
+
+import java.lang.ref.Cleaner;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class LoxGenerator implements LoxCallable {
+    /* What calling a generator function returns. Each call runs the body
+     up to its next 'yield' and returns the value yielded, or nil once the
+     body has finished. The body runs on a thread of its own, so it can be
+     suspended mid-call, with its own value stack swapped into the
+     Interpreter while it runs. Only one of the two threads ever runs at a
+     time: each hands over to the other through a semaphore and waits.
+
+     Consumers usually stop early, leaving the body parked in a 'yield'.
+     The body and its thread are kept apart from this object, so when the
+     GC happens to collect a dropped generator, a Cleaner queues its body
+     on the Interpreter. Unwinding the body touches the Interpreter's frame
+     registers, so it can't happen on the Cleaner's thread: the thread that
+     owns the Interpreter resumes the body once more to end it, the next
+     time it starts a generator. Nothing forces that collection, though, so
+     the number of bodies with a live thread is capped by -Djlox.generators
+     (1024 by default): starting one more is a runtime error, "Too many
+     generators running." Run generators to the end to stay under it. */
+    private static final Cleaner cleaner = Cleaner.create();
+    // Bodies with a live thread, across all Interpreters.
+    private static final AtomicInteger threads = new AtomicInteger();
+
+    private final Body body;
+
+    LoxGenerator(Interpreter interpreter, LoxFunction function, LoxInstance receiver,
+                 Object a, Object b, Object c, Object[] arguments) {
+        body = new Body(interpreter, function, receiver, a, b, c, arguments);
+    }
+
+    @Override
+    public int arity() {
+        return 0;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        return resume(interpreter);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return resume(interpreter);
+    }
+
+    private Object resume(Interpreter caller) {
+        // The body's frames live in the value stack of the task that made it.
+        if (caller != body.interpreter) {
+            throw new RuntimeError(body.function.declaration.name,
+                "Can't resume a generator from another task.");
+        }
+        if (body.done) return null;
+        InterpreterStats.resumes.increment();
+
+        if (body.thread == null) {
+            reclaim(caller);
+            cleaner.register(this, body::abandon);
+        }
+        body.run(false);
+
+        if (body.error != null) throw body.error;
+        if (!body.yielded) return null;
+        Object result = body.value;
+        body.value = null;
+        body.yielded = false;
+        return result;
+    }
+
+    private static void reclaim(Interpreter interpreter) {
+        // Ends the bodies of this Interpreter's generators the GC has found dropped so far.
+        Body body;
+        while ((body = interpreter.abandoned.poll()) != null) {
+            if (body.thread != null && !body.done) body.run(true);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<generator " + body.function.declaration.name.lexeme + ">";
+    }
+
+    static class Body {
+        /* Everything the body's thread uses. It must not reach the
+         LoxGenerator, or a parked thread would keep it alive. */
+        private final Interpreter interpreter;
+        private final LoxFunction function;
+        private final LoxInstance receiver;
+        private final Object a, b, c;
+        private final Object[] arguments;
+
+        private final Semaphore resumed = new Semaphore(0);
+        private final Semaphore suspended = new Semaphore(0);
+        private Thread thread;
+        private boolean closing = false;
+
+        // The body's interpreter state while suspended; see Interpreter.swap().
+        Object[] stack = new Object[64];
+        int frame = 0;
+        int top = 0;
+        Cell[] upvalues = new Cell[0];
+
+        // Set by the body's thread before it hands back.
+        private Object value;
+        private boolean yielded = false;
+        private boolean done = false;
+        private RuntimeException error;
+
+        private Body(Interpreter interpreter, LoxFunction function, LoxInstance receiver,
+                     Object a, Object b, Object c, Object[] arguments) {
+            this.interpreter = interpreter;
+            this.function = function;
+            this.receiver = receiver;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.arguments = arguments;
+        }
+
+        private void run(boolean close) {
+            // Hands over to the body until it yields or ends; with 'close', until it has unwound.
+            closing = close;
+            interpreter.swap(this);
+            Body previous = interpreter.generator;
+            interpreter.generator = this;
+            try {
+                if (thread == null) {
+                    start();
+                } else {
+                    resumed.release();
+                }
+                suspended.acquireUninterruptibly();
+            } finally {
+                interpreter.generator = previous;
+                interpreter.swap(this);
+            }
+        }
+
+        private void start() {
+            long stackSize = Lox.stackMegabytes * 1024L * 1024L;
+            Thread thread = new Thread(null, this::execute, "jlox-generator", stackSize);
+            // A generator dropped before it finishes mustn't keep the VM alive.
+            thread.setDaemon(true);
+            if (threads.incrementAndGet() > Lox.generators) {
+                threads.decrementAndGet();
+                throw new RuntimeError(function.declaration.name,
+                    "Too many generators running.");
+            }
+            try {
+                thread.start();
+            } catch (OutOfMemoryError failure) {
+                threads.decrementAndGet();
+                throw new RuntimeError(function.declaration.name,
+                    "Too many generators running.");
+            }
+            this.thread = thread;
+        }
+
+        void yield(Object value) {
+            // Runs on the body's thread: hands the value over and waits to be resumed.
+            this.value = value;
+            yielded = true;
+            suspended.release();
+            resumed.acquireUninterruptibly();
+            if (closing) throw Abandoned.INSTANCE;
+        }
+
+        private void abandon() {
+            // Runs on the Cleaner's thread once the LoxGenerator is unreachable.
+            interpreter.abandoned.add(this);
+        }
+
+        private void execute() {
+            try {
+                interpreter.executeFunction(function, receiver, a, b, c, arguments);
+            } catch (Abandoned abandoned) {
+                // Unwound by reclaim(); nobody is left to see the result.
+            } catch (Return returnValue) {
+                // A bare 'return' ends the generator.
+            } catch (RuntimeException failure) {
+                // A RuntimeError, reported by whoever resumed the generator.
+                error = failure;
+            } catch (StackOverflowError overflow) {
+                error = new RuntimeError(function.declaration.name, "Stack overflow.");
+            } finally {
+                done = true;
+                threads.decrementAndGet();
+                suspended.release();
+            }
+        }
+    }
+
+    private static class Abandoned extends RuntimeException {
+        // Unwinds a dropped generator's body. Thrown often, so it has no stack trace.
+        static final Abandoned INSTANCE = new Abandoned();
+
+        private Abandoned() {
+            super(null, null, false, false);
+        }
+    }
+}
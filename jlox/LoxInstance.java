@@ -6,14 +6,36 @@ import java.util.Map;
 
 public class LoxInstance {
     private LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    private final Map<String, Object> fields;
 
     LoxInstance(LoxClass klass) {
+        this(klass, 0);
+    }
+
+    LoxInstance(LoxClass klass, int expectedFields) {
+        // Sized so 'expectedFields' fit without rehashing, and no bigger.
         this.klass = klass;
+        fields = expectedFields == 0 ? new HashMap<>()
+            : new HashMap<>((int)(expectedFields / 0.75f) + 1);
+    }
+
+    int fieldCount() {
+        return fields.size();
     }
 
     Object get(Token name) {
+        // Once tasks are running, fields are only touched under the instance's lock.
+        if (Interpreter.concurrent) {
+            synchronized (this) {
+                return lookup(name);
+            }
+        }
+        return lookup(name);
+    }
+
+    private Object lookup(Token name) {
         // Get field on LoxInstance.
+        InterpreterStats.propertyLookups.increment();
         if (fields.containsKey(name.lexeme)) {
             return fields.get(name.lexeme);
         }
@@ -27,6 +49,12 @@ public class LoxInstance {
 
     void set(Token name, Object value) {
         // Set field on LoxInstance.
+        if (Interpreter.concurrent) {
+            synchronized (this) {
+                fields.put(name.lexeme, value);
+            }
+            return;
+        }
         fields.put(name.lexeme, value);
     }
 
@@ -0,0 +1,52 @@
+package jlox;
+
+class LoxTask {
+    /* A Lox function or class called with no arguments on a thread of its
+     own, as started by spawn(). The task gets an Interpreter of its own,
+     which shares the globals and everything the Resolver worked out with
+     the one that spawned it. join() waits for the task and returns what the
+     call returned. A runtime error in the task is reported as soon as it
+     happens, and join() then returns nil. */
+    private final Thread thread;
+    private Object result;
+
+    LoxTask(Interpreter parent, LoxCallable function) {
+        Interpreter interpreter = new Interpreter(parent);
+        // From here on instances may be seen by two threads.
+        Interpreter.concurrent = true;
+
+        long stackSize = Lox.stackMegabytes * 1024L * 1024L;
+        thread = new Thread(null, () -> run(interpreter, function), "jlox-task", stackSize);
+        // Like the main script, a task doesn't keep the VM alive once it ends.
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run(Interpreter interpreter, LoxCallable function) {
+        try {
+            result = function.call0(interpreter);
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        }
+    }
+
+    Object join() {
+        // Thread.join() also makes the task's writes visible here.
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "<task>";
+    }
+}
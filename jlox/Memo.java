@@ -0,0 +1,126 @@
+package jlox;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+class Memo {
+    /* The results of one pure function by argument values, for
+     -Djlox.memo=N: at most N of them, the least recently used dropped
+     first. A function is pure if PurityAnalysis passes its body and every
+     function it can reach through the global names it calls. What those
+     names held is recorded, and checked again whenever a global holding a
+     function has changed since. */
+    static final Object MISSING = new Object();
+
+    private final boolean pure;
+    private final List<Token> names = new ArrayList<>();
+    private final List<Object> values = new ArrayList<>();
+    private int version;
+    private final Map<List<Object>, Object> results;
+
+    Memo(Interpreter interpreter, LoxFunction function) {
+        version = interpreter.globals.version;
+        pure = check(interpreter, function);
+        results = new LinkedHashMap<List<Object>, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest) {
+                return size() > Lox.memoSize;
+            }
+        };
+    }
+
+    boolean isPure() {
+        return pure;
+    }
+
+    private boolean check(Interpreter interpreter, LoxFunction function) {
+        Set<Stmt.Function> seen = new HashSet<>();
+        Deque<LoxFunction> pending = new ArrayDeque<>();
+        pending.add(function);
+        seen.add(function.declaration);
+
+        while (!pending.isEmpty()) {
+            LoxFunction next = pending.remove();
+            Stmt.Function declaration = next.declaration;
+            if (declaration.body instanceof LazyBody) interpreter.load(declaration);
+
+            // Methods read 'this'; closures read captured cells.
+            if (next.receiver != null || next.layout.receiver != null) return false;
+            if (!next.layout.captures.isEmpty() || next.layout.generator) return false;
+
+            PurityAnalysis analysis = PurityAnalysis.analyze(declaration.body);
+            if (!analysis.isPure()) return false;
+
+            for (Token name : analysis.callees) {
+                Object callee;
+                try {
+                    callee = interpreter.globals.get(name);
+                } catch (RuntimeError error) {
+                    return false;
+                }
+                if (!(callee instanceof LoxFunction)) return false;
+
+                names.add(name);
+                values.add(callee);
+                LoxFunction calleeFunction = (LoxFunction)callee;
+                if (seen.add(calleeFunction.declaration)) pending.add(calleeFunction);
+            }
+        }
+        return true;
+    }
+
+    boolean isCurrent(Environment globals) {
+        // Whether the names the function calls still hold what they did.
+        if (globals.version == version) return true;
+        int now = globals.version;
+        for (int i = 0; i < names.size(); i++) {
+            Object value;
+            try {
+                value = globals.get(names.get(i));
+            } catch (RuntimeError error) {
+                return false;
+            }
+            if (value != values.get(i)) return false;
+        }
+        version = now;
+        return true;
+    }
+
+    static List<Object> key(int count, Object a, Object b, Object c, Object[] arguments) {
+        /* The arguments as a cache key, or null if one of them is an object
+         whose contents, rather than identity, the function could depend on. */
+        Object[] key;
+        if (arguments != null) {
+            key = arguments.clone();
+        } else {
+            key = new Object[count];
+            if (count > 0) key[0] = a;
+            if (count > 1) key[1] = b;
+            if (count > 2) key[2] = c;
+        }
+        for (Object value : key) {
+            if (value != null && !(value instanceof Double) &&
+                !(value instanceof String) && !(value instanceof Boolean)) {
+                return null;
+            }
+        }
+        return Arrays.asList(key);
+    }
+
+    synchronized Object get(List<Object> key) {
+        Object value = results.get(key);
+        if (value == null && !results.containsKey(key)) return MISSING;
+        return value;
+    }
+
+    synchronized void put(List<Object> key, Object value) {
+        results.put(key, value);
+    }
+}
@@ -0,0 +1,14 @@
+package jlox;
+
+class NativeError extends RuntimeError {
+    /* A runtime error raised inside a native function. Natives aren't told
+     where they were called from, so the call expression that catches one
+     raises it again at its own parenthesis. */
+    NativeError(String name, String message) {
+        super(new Token(TokenType.IDENTIFIER, name, null, 0), message);
+    }
+
+    RuntimeError at(Token paren) {
+        return new RuntimeError(paren, getMessage());
+    }
+}
@@ -0,0 +1,430 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    /* Rewrites a resolved program before it is interpreted. Folds constant
+     expressions, propagates local variables that are never reassigned,
+     short-circuits logical operators with constant operands, and removes
+     dead if/while branches. Anything that would fail at run time (e.g.
+     "a" - 1) is left alone so the error is still raised at the same line. */
+    private final Interpreter interpreter;
+
+    // Each local declaration seen, keyed by the variable and assignment nodes that refer to it.
+    private final Map<Expr, Binding> bindings = new HashMap<>();
+    private final Map<Stmt.Var, Binding> declarations = new HashMap<>();
+    private final Stack<Map<String, Binding>> scopes = new Stack<>();
+
+    // The first pass only records bindings; the second one propagates constants.
+    private boolean analyzing;
+
+    private static class Binding {
+        boolean assigned = false;
+        boolean constant = false;
+        Object value;
+    }
+
+    Optimizer(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    List<Stmt> optimize(List<Stmt> statements) {
+        analyzing = true;
+        optimizeAll(statements);
+
+        analyzing = false;
+        return optimizeAll(statements);
+    }
+
+    private List<Stmt> optimizeAll(List<Stmt> statements) {
+        /* Optimizes a list of statements, dropping any that were eliminated
+         and splicing in the statements of nested blocks that declare nothing. */
+        List<Stmt> optimized = new ArrayList<>();
+        for (Stmt statement : statements) {
+            Stmt result = optimize(statement);
+            if (result == null) continue;
+
+            if (result instanceof Stmt.Block && !declares((Stmt.Block)result)) {
+                optimized.addAll(((Stmt.Block)result).statements);
+            } else {
+                optimized.add(result);
+            }
+        }
+        return optimized;
+    }
+
+    private static boolean declares(Stmt.Block block) {
+        // A block without declarations runs the same in its enclosing scope.
+        for (Stmt statement : block.statements) {
+            if (statement instanceof Stmt.Var ||
+                statement instanceof Stmt.Function ||
+                statement instanceof Stmt.Class) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Stmt optimize(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private Stmt optimizeBranch(Stmt stmt) {
+        // Branches and loop bodies need a statement even when theirs was eliminated.
+        Stmt result = optimize(stmt);
+        if (result == null) return new Stmt.Block(Collections.emptyList());
+
+        // A body block holding one statement and no declarations is just that statement.
+        if (result instanceof Stmt.Block && !declares((Stmt.Block)result) &&
+            ((Stmt.Block)result).statements.size() == 1) {
+            return ((Stmt.Block)result).statements.get(0);
+        }
+        return result;
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private void beginScope() {
+        if (analyzing) scopes.push(new HashMap<String, Binding>());
+    }
+
+    private void endScope() {
+        if (analyzing) scopes.pop();
+    }
+
+    private Binding declare(Token name) {
+        // Adds a local declaration to the innermost scope. Globals are never tracked.
+        if (!analyzing || scopes.isEmpty()) return null;
+        Binding binding = new Binding();
+        scopes.peek().put(name.lexeme, binding);
+        return binding;
+    }
+
+    private void bind(Expr expr, Token name) {
+        // Links a variable use to the same declaration the Resolver chose.
+        if (!analyzing) return;
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Binding binding = scopes.get(i).get(name.lexeme);
+            if (binding != null) {
+                bindings.put(expr, binding);
+                return;
+            }
+        }
+    }
+
+    private <T extends Stmt> T replace(T original, T optimized) {
+        // Keeps what the Resolver recorded about a statement the optimizer rebuilt.
+        if (!analyzing) interpreter.replace(original, optimized);
+        return optimized;
+    }
+
+    private static boolean isTruthy(Object object) {
+        if (object == null) return false;
+        if (object instanceof Boolean) return (boolean)object;
+        return true;
+    }
+
+    private static boolean isEqual(Object a, Object b) {
+        if (a == null && b == null) return true;
+        if (a == null) return false;
+
+        return a.equals(b);
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        List<Stmt> statements = optimizeAll(stmt.statements);
+        endScope();
+        return new Stmt.Block(statements);
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        declare(stmt.name);
+
+        if (stmt.superclass != null) {
+            bind(stmt.superclass, stmt.superclass.name);
+        }
+
+        List<Stmt.Function> methods = new ArrayList<>();
+        for (Stmt.Function method : stmt.methods) {
+            methods.add(optimizeFunction(method));
+        }
+        return replace(stmt, new Stmt.Class(stmt.name, stmt.superclass, methods));
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        return new Stmt.Expression(optimize(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt) {
+        beginScope();
+        Stmt initializer = null;
+        if (stmt.initializer != null) initializer = optimize(stmt.initializer);
+        Expr condition = null;
+        if (stmt.condition != null) condition = optimize(stmt.condition);
+
+        // A loop whose condition is constantly false only runs its initializer.
+        if (condition instanceof Expr.Literal &&
+            !isTruthy(((Expr.Literal)condition).value)) {
+            endScope();
+            if (initializer == null) return null;
+            return new Stmt.Block(Collections.singletonList(initializer));
+        }
+
+        Expr increment = null;
+        if (stmt.increment != null) increment = optimize(stmt.increment);
+        Stmt body = optimizeBranch(stmt.body);
+        endScope();
+        return replace(stmt, new Stmt.For(stmt.keyword, initializer, condition, increment, body));
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        declare(stmt.name);
+        return optimizeFunction(stmt);
+    }
+
+    private Stmt.Function optimizeFunction(Stmt.Function function) {
+        // A body that hasn't been parsed yet is optimized when it is loaded.
+        if (function.body instanceof LazyBody) return function;
+
+        beginScope();
+        for (Token param : function.params) {
+            declare(param);
+        }
+        List<Stmt> body = optimizeAll(function.body);
+        endScope();
+        return replace(function, new Stmt.Function(function.name, function.params, body));
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+
+        // Only the branch that can run is kept.
+        if (condition instanceof Expr.Literal) {
+            if (isTruthy(((Expr.Literal)condition).value)) {
+                return optimize(stmt.thenBranch);
+            }
+            if (stmt.elseBranch != null) return optimize(stmt.elseBranch);
+            return null;
+        }
+
+        Stmt thenBranch = optimizeBranch(stmt.thenBranch);
+        Stmt elseBranch = null;
+        if (stmt.elseBranch != null) elseBranch = optimizeBranch(stmt.elseBranch);
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        return new Stmt.Print(optimize(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return stmt;
+
+        return replace(stmt, new Stmt.Return(stmt.keyword, optimize(stmt.value)));
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        Binding binding = declare(stmt.name);
+        if (binding != null) declarations.put(stmt, binding);
+
+        Expr initializer = null;
+        if (stmt.initializer != null) initializer = optimize(stmt.initializer);
+
+        binding = declarations.get(stmt);
+        if (!analyzing && binding != null && !binding.assigned) {
+            // A local that is never reassigned keeps its initial value everywhere.
+            if (initializer == null) {
+                binding.constant = true;
+                binding.value = null;
+            } else if (initializer instanceof Expr.Literal) {
+                binding.constant = true;
+                binding.value = ((Expr.Literal)initializer).value;
+            }
+        }
+        return replace(stmt, new Stmt.Var(stmt.name, initializer));
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+
+        // A loop whose condition is constantly false never runs its body.
+        if (condition instanceof Expr.Literal &&
+            !isTruthy(((Expr.Literal)condition).value)) {
+            return null;
+        }
+
+        return new Stmt.While(stmt.keyword, condition, optimizeBranch(stmt.body));
+    }
+
+    @Override
+    public Stmt visitYieldStmt(Stmt.Yield stmt) {
+        if (stmt.value == null) return stmt;
+
+        return new Stmt.Yield(stmt.keyword, optimize(stmt.value));
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.value);
+
+        bind(expr, expr.name);
+        Binding binding = bindings.get(expr);
+        if (binding != null) binding.assigned = true;
+
+        Expr.Assign optimized = new Expr.Assign(expr.name, value);
+        if (!analyzing) interpreter.replace(expr, optimized);
+        return optimized;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
+            Expr folded = fold(expr.operator,
+                ((Expr.Literal)left).value, ((Expr.Literal)right).value);
+            if (folded != null) return folded;
+        }
+
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    private Expr fold(Token operator, Object left, Object right) {
+        // Evaluates a binary operator on constants, or returns null if it would fail at run time.
+        switch (operator.type) {
+            case BANG_EQUAL: return new Expr.Literal(!isEqual(left, right));
+            case EQUAL_EQUAL: return new Expr.Literal(isEqual(left, right));
+            case PLUS:
+                if (left instanceof String && right instanceof String) {
+                    return new Expr.Literal((String)left + (String)right);
+                }
+                break;
+        }
+
+        if (!(left instanceof Double && right instanceof Double)) return null;
+        double a = (double)left;
+        double b = (double)right;
+
+        switch (operator.type) {
+            case GREATER: return new Expr.Literal(a > b);
+            case GREATER_EQUAL: return new Expr.Literal(a >= b);
+            case LESS: return new Expr.Literal(a < b);
+            case LESS_EQUAL: return new Expr.Literal(a <= b);
+            case MINUS: return new Expr.Literal(a - b);
+            case PLUS: return new Expr.Literal(a + b);
+            case SLASH: return new Expr.Literal(a / b);
+            case STAR: return new Expr.Literal(a * b);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = optimize(expr.callee);
+
+        List<Expr> arguments = new ArrayList<>();
+        for (Expr argument : expr.arguments) {
+            arguments.add(optimize(argument));
+        }
+
+        return new Expr.Call(callee, expr.paren, arguments);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        return new Expr.Get(optimize(expr.object), expr.name);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr expression = optimize(expr.expression);
+        if (expression instanceof Expr.Literal) return expression;
+        return new Expr.Grouping(expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+
+        // A constant left operand decides which operand is the result.
+        if (left instanceof Expr.Literal) {
+            boolean truthy = isTruthy(((Expr.Literal)left).value);
+            if (expr.operator.type == TokenType.OR ? truthy : !truthy) {
+                return left;
+            }
+            return optimize(expr.right);
+        }
+
+        return new Expr.Logical(left, expr.operator, optimize(expr.right));
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = optimize(expr.object);
+        return new Expr.Set(object, expr.name, optimize(expr.value));
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+
+        if (right instanceof Expr.Literal) {
+            Object value = ((Expr.Literal)right).value;
+            switch (expr.operator.type) {
+                case BANG:
+                    return new Expr.Literal(!isTruthy(value));
+                case MINUS:
+                    if (value instanceof Double) return new Expr.Literal(-(double)value);
+                    break;
+            }
+        }
+
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        bind(expr, expr.name);
+
+        Binding binding = bindings.get(expr);
+        if (!analyzing && binding != null && binding.constant) {
+            return new Expr.Literal(binding.value);
+        }
+        return expr;
+    }
+}
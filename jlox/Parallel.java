@@ -0,0 +1,144 @@
+package jlox;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+class Parallel {
+    /* parallelMap(n, fn) and parallelReduce(n, fn, combine, init): call
+     fn(i) for every i from 0 to n - 1 on the pool's worker threads. The
+     range is split in halves until the pieces are a few per worker. Each
+     worker thread runs Lox code in an Interpreter of its own, made the
+     first time it takes a piece, like a spawned task's. */
+    private static final ForkJoinPool pool = new ForkJoinPool(
+        Runtime.getRuntime().availableProcessors());
+
+    private final Interpreter parent;
+    private final Map<Thread, Interpreter> workers = new ConcurrentHashMap<>();
+    private final int pieceSize;
+
+    private Parallel(Interpreter parent, int count) {
+        this.parent = parent;
+        pieceSize = Math.max(1, count / (pool.getParallelism() * 4));
+        Interpreter.concurrent = true;
+    }
+
+    private Interpreter worker() {
+        return workers.computeIfAbsent(Thread.currentThread(), thread -> new Interpreter(parent));
+    }
+
+    static LoxCallable map(Interpreter interpreter, int count, LoxCallable function) {
+        // Lox has no arrays, so the results come back as a function of the index.
+        Object[] results = new Object[count];
+        Parallel parallel = new Parallel(interpreter, count);
+        pool.invoke(parallel.new MapPiece(function, results, 0, count));
+        return new Results(results);
+    }
+
+    static Object reduce(Interpreter interpreter, int count, LoxCallable function,
+                         LoxCallable combine, Object initial) {
+        // Each piece starts from 'initial', so it must be combine's identity.
+        if (count == 0) return initial;
+        Parallel parallel = new Parallel(interpreter, count);
+        return pool.invoke(parallel.new ReducePiece(function, combine, initial, 0, count));
+    }
+
+    private class MapPiece extends RecursiveAction {
+        private final LoxCallable function;
+        private final Object[] results;
+        private final int from;
+        private final int to;
+
+        MapPiece(LoxCallable function, Object[] results, int from, int to) {
+            this.function = function;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > pieceSize) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new MapPiece(function, results, from, middle),
+                          new MapPiece(function, results, middle, to));
+                return;
+            }
+
+            Interpreter interpreter = worker();
+            for (int i = from; i < to; i++) {
+                results[i] = function.call1(interpreter, (double)i);
+            }
+        }
+    }
+
+    private class ReducePiece extends RecursiveTask<Object> {
+        private final LoxCallable function;
+        private final LoxCallable combine;
+        private final Object initial;
+        private final int from;
+        private final int to;
+
+        ReducePiece(LoxCallable function, LoxCallable combine, Object initial, int from, int to) {
+            this.function = function;
+            this.combine = combine;
+            this.initial = initial;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Object compute() {
+            if (to - from > pieceSize) {
+                int middle = (from + to) >>> 1;
+                ReducePiece right = new ReducePiece(function, combine, initial, middle, to);
+                right.fork();
+                Object left = new ReducePiece(function, combine, initial, from, middle).compute();
+                Object rightValue = right.join();
+                return combine.call2(worker(), left, rightValue);
+            }
+
+            Interpreter interpreter = worker();
+            Object value = initial;
+            for (int i = from; i < to; i++) {
+                value = combine.call2(interpreter, value, function.call1(interpreter, (double)i));
+            }
+            return value;
+        }
+    }
+
+    private static class Results implements LoxCallable {
+        private final Object[] values;
+
+        Results(Object[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public int arity() {
+            return 1;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return call1(interpreter, arguments.get(0));
+        }
+
+        @Override
+        public Object call1(Interpreter interpreter, Object index) {
+            if (!(index instanceof Double) || (Double)index < 0 ||
+                (Double)index >= values.length || (Double)index != Math.floor((Double)index)) {
+                throw Interpreter.nativeError("parallelMap", "Index out of range.");
+            }
+            return values[((Double)index).intValue()];
+        }
+
+        @Override
+        public String toString() {
+            return "<results " + values.length + ">";
+        }
+    }
+}
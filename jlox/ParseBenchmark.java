@@ -0,0 +1,50 @@
+package jlox;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+class ParseBenchmark {
+    /* Measures parser throughput in tokens per second. Parses the given
+     script, or a generated expression-heavy one, repeatedly after a warm-up.
+     Usage: java jlox.ParseBenchmark [script] */
+    public static void main(String[] args) throws IOException {
+        String source;
+        if (args.length == 1) {
+            byte[] bytes = Files.readAllBytes(Paths.get(args[0]));
+            source = new String(bytes, Charset.defaultCharset());
+        } else {
+            source = generate(20000);
+        }
+
+        List<Token> tokens = new Scanner(source).scanTokens();
+        if (Lox.hadError) System.exit(65);
+
+        // Warm up so the JIT has compiled the parser before timing.
+        for (int i = 0; i < 20; i++) new Parser(tokens).parse();
+
+        int runs = 50;
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) new Parser(tokens).parse();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d tokens, %.1f ms per parse, %.1fM tokens/s%n",
+            tokens.size(), seconds * 1000 / runs,
+            tokens.size() * (double)runs / seconds / 1e6);
+    }
+
+    private static String generate(int functions) {
+        // Functions full of mixed-precedence expressions, like generated code.
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < functions; i++) {
+            builder.append("fun f").append(i).append("(a, b, c) {\n")
+                .append("  var x = a + b * c - (a / 2) * -b;\n")
+                .append("  if (x >= 10 and x != b or !c) x = x + 1;\n")
+                .append("  return x == a * 2 + 3 < b * c;\n")
+                .append("}\n");
+        }
+        return builder.toString();
+    }
+}
@@ -1,7 +1,6 @@
 package jlox;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import static jlox.TokenType.*;
@@ -11,9 +10,26 @@ class Parser {
     private static class ParseError extends RuntimeException {}
     private final List<Token> tokens;
     private int current = 0;
+    // Whether top-level function and method bodies are only brace-matched.
+    private final boolean lazy;
+    // How many blocks the parser is inside.
+    private int depth = 0;
+    // Resolves names as they are parsed (one-pass mode), or null.
+    private final Resolver resolver;
 
     Parser(List<Token> tokens) {
+        this(tokens, false);
+    }
+
+    Parser(List<Token> tokens, boolean lazy) {
+        this(tokens, lazy, null);
+    }
+
+    Parser(List<Token> tokens, boolean lazy, Resolver resolver) {
         this.tokens = tokens;
+        this.lazy = lazy;
+        this.resolver = resolver;
+        if (resolver != null) resolver.deferErrors();
     }
 
     List<Stmt> parse() {
@@ -25,6 +41,15 @@ class Parser {
         return statements;
     }
 
+    List<Stmt> parseBody() {
+        // Parses the tokens of a LazyBody, which end with the body's closing '}'.
+        try {
+            return block();
+        } catch (ParseError error) {
+            return new ArrayList<>();
+        }
+    }
+
     /*  Methods for each rule of Lox's grammar. Each method for 
     parsing a grammar rule produces a syntax tree for that rule and 
     returns it to the caller.
@@ -71,13 +96,21 @@ class Parser {
         consume(LEFT_BRACE, "Expect '{' before class body.");
 
         List<Stmt.Function> methods = new ArrayList<>();
-        while (!check(RIGHT_BRACE) && !isAtEnd()) {
-            methods.add(function("method"));
+        // Created before its methods are parsed so the resolver can see it.
+        Stmt.Class stmt = new Stmt.Class(name, superclass, methods);
+        Resolver.ClassType enclosingClass =
+            resolver != null ? resolver.beginClass(stmt) : null;
+        try {
+            while (!check(RIGHT_BRACE) && !isAtEnd()) {
+                methods.add(function("method"));
+            }
+        } finally {
+            if (resolver != null) resolver.endClass(stmt, enclosingClass);
         }
 
         consume(RIGHT_BRACE, "Expect '}' after class body.");
 
-        return new Stmt.Class(name, superclass, methods);
+        return stmt;
     }
 
 
@@ -88,17 +121,40 @@ class Parser {
         if (match(PRINT)) return printStatement();
         if (match(RETURN)) return returnStatement();
         if (match(WHILE)) return whileStatement();
-        if (match(LEFT_BRACE)) return new Stmt.Block(block());
+        if (match(YIELD)) return yieldStatement();
+        if (match(LEFT_BRACE)) return blockStatement();
 
         return expressionStatement();
     }
 
+    private Stmt blockStatement() {
+        if (resolver == null) return new Stmt.Block(block());
+
+        resolver.beginScope();
+        try {
+            return new Stmt.Block(block());
+        } finally {
+            resolver.endScope();
+        }
+    }
+
     private Stmt forStatement() {
         /* forStmt        → "for" "(" ( varDecl | exprStmt | ";" )
                             expression? ";"
                             expression? ")" statement ; */
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'for'.");
 
+        // The loop variable is scoped to the loop.
+        if (resolver != null) resolver.beginScope();
+        try {
+            return forClauses(keyword);
+        } finally {
+            if (resolver != null) resolver.endScope();
+        }
+    }
+
+    private Stmt forClauses(Token keyword) {
         Stmt initializer;
         if (match(SEMICOLON)) {
             initializer = null;
@@ -119,23 +175,19 @@ class Parser {
             increment = expression();
         }
         consume(RIGHT_PAREN, "Expect ')' after for clauses.");
-        Stmt body = statement();
-
-        // Desugaring for loop into While loop.
-        if (increment != null) {
-            body = new Stmt.Block(
-                Arrays.asList(
-                    body,
-                    new Stmt.Expression(increment)));
+        if (resolver == null) {
+            // Kept as its own node so the Interpreter can spot counted loops.
+            return new Stmt.For(keyword, initializer, condition, increment, statement());
         }
-        if (condition == null) condition = new Expr.Literal(true);
-        body = new Stmt.While(condition, body);
 
-        if (initializer != null) {
-            body = new Stmt.Block(Arrays.asList(initializer, body));
+        CountedLoop enclosingLoop = resolver.beginLoop(initializer, condition, increment);
+        Stmt.For stmt = null;
+        try {
+            stmt = new Stmt.For(keyword, initializer, condition, increment, statement());
+            return stmt;
+        } finally {
+            resolver.endLoop(stmt, enclosingLoop);
         }
-
-        return body;
     }
 
     private Stmt ifStatement() {
@@ -164,33 +216,55 @@ class Parser {
         Token keyword = previous();
         Expr value = null;
 
+        if (resolver != null) resolver.checkReturn(keyword, !check(SEMICOLON));
         if (!check(SEMICOLON)) {
             value = expression();
         }
 
         consume(SEMICOLON, "Expect ';' after return value.");
-        return new Stmt.Return(keyword, value);
+        Stmt.Return stmt = new Stmt.Return(keyword, value);
+        if (resolver != null) resolver.returned(stmt);
+        return stmt;
+    }
+
+    private Stmt yieldStatement() {
+        // yieldStmt      → "yield" expression? ";" ;
+        Token keyword = previous();
+        Expr value = null;
+
+        if (resolver != null) resolver.checkYield(keyword);
+        if (!check(SEMICOLON)) {
+            value = expression();
+        }
+
+        consume(SEMICOLON, "Expect ';' after yield value.");
+        return new Stmt.Yield(keyword, value);
     }
 
     private Stmt varDeclaration() {
         Token name = consume(IDENTIFIER, "Expect variable name.");
+        Slot slot = resolver != null ? resolver.declare(name) : null;
 
         Expr initializer = null;
         if (match(EQUAL)) {
             initializer = expression();
         }
+        if (resolver != null) resolver.define(name);
 
         consume(SEMICOLON, "Expect ';' after variable declaration.");
-        return new Stmt.Var(name, initializer);
+        Stmt.Var stmt = new Stmt.Var(name, initializer);
+        if (resolver != null) resolver.declared(stmt, slot);
+        return stmt;
     }
 
     private Stmt whileStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'while'.");
         Expr condition = expression();
         consume(RIGHT_PAREN, "Expect ')' after condition.");
         Stmt body = statement();
 
-        return new Stmt.While(condition, body);
+        return new Stmt.While(keyword, condition, body);
     }
 
     private Stmt expressionStatement() {
@@ -202,6 +276,11 @@ class Parser {
 
     private Stmt.Function function(String kind) {
         Token name = consume(IDENTIFIER, "Expect" + kind + " name.");
+        Slot slot = null;
+        if (resolver != null && kind.equals("function")) {
+            slot = resolver.declare(name);
+            resolver.define(name);
+        }
         consume(LEFT_PAREN, "Expect '(' after " + " name.");
         List<Token> parameters = new ArrayList<>();
         if (!check(RIGHT_PAREN)) {
@@ -217,16 +296,66 @@ class Parser {
         consume(RIGHT_PAREN, "Expect ')' after parameters.");
 
         consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
-        List<Stmt> body = block();
-        return new Stmt.Function(name, parameters, body);
+        if (resolver == null) {
+            if (lazy && depth == 0) {
+                return new Stmt.Function(name, parameters, skipBody());
+            }
+            List<Stmt> body = block();
+            return new Stmt.Function(name, parameters, body);
+        }
+
+        Resolver.FunctionType type = Resolver.FunctionType.FUNCTION;
+        if (kind.equals("method")) {
+            type = name.lexeme.equals("init")
+                ? Resolver.FunctionType.INITIALIZER : Resolver.FunctionType.METHOD;
+        }
+
+        resolver.beginFunction(type, parameters);
+        Stmt.Function function = null;
+        try {
+            if (lazy && depth == 0) {
+                LazyBody body = skipBody();
+                resolver.deferBody(body);
+                function = new Stmt.Function(name, parameters, body);
+            } else {
+                function = new Stmt.Function(name, parameters, block());
+            }
+        } finally {
+            resolver.endFunction(function);
+        }
+        resolver.declared(function, slot);
+        return function;
+    }
+
+    private LazyBody skipBody() {
+        /* Pre-parses a function body by matching braces only, leaving the
+         full parse until the function is first called. */
+        int start = current;
+        int braces = 1;
+        while (!isAtEnd()) {
+            if (check(LEFT_BRACE)) {
+                braces++;
+            } else if (check(RIGHT_BRACE) && --braces == 0) {
+                break;
+            }
+            advance();
+        }
+
+        consume(RIGHT_BRACE, "Expect '}' after block.");
+        return new LazyBody(tokens, start, current);
     }
 
     private List<Stmt> block() {
         // Parses a block of statments.
         List<Stmt> statements = new ArrayList<>();
 
-        while (!check(RIGHT_BRACE) && !isAtEnd()) {
-            statements.add(declaration());
+        depth++;
+        try {
+            while (!check(RIGHT_BRACE) && !isAtEnd()) {
+                statements.add(declaration());
+            }
+        } finally {
+            depth--;
         }
 
         consume(RIGHT_BRACE, "Expect '}' after block.");
@@ -236,7 +365,7 @@ class Parser {
     private Expr assignment() {
         // Parses an assignment.
 
-        Expr expr = or();
+        Expr expr = binary(1);
 
         if (match(EQUAL)) {
             Token equals = previous();
@@ -245,7 +374,9 @@ class Parser {
             // Once matches '=' checks if left operand is a valid asignment target.
             if (expr instanceof Expr.Variable) {
                 Token name = ((Expr.Variable)expr).name;
-                return new Expr.Assign(name, value);
+                Expr.Assign assign = new Expr.Assign(name, value);
+                if (resolver != null) resolver.assign(assign);
+                return assign;
             } else if (expr instanceof Expr.Get) {
                 Expr.Get get = (Expr.Get)expr;
                 return new Expr.Set(get.object, get.name, value);
@@ -257,77 +388,50 @@ class Parser {
         return expr;
     }
 
-    private Expr or() {
-        Expr expr = and();
-
-        while (match(OR)) {
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr and() {
-        Expr expr = equality();
-
-        while (match(AND)) {
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr equality() {
-        // equality       → comparison ( ( "!=" | "==" ) comparison )* ;
-        Expr expr = comparison();
-
-        while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr comparison() {
-        // comparison     → term ( ( ">" | ">=" | "<" | "<=" ) term )* ;
-        Expr expr = term();
-
-        while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-            Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr term() {
-        // term           → factor ( ( "-" | "+" ) factor )* ;
-        Expr expr = factor();
-
-        while (match(MINUS, PLUS)) {
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr factor() {
-        // factor         → unary ( ( "/" | "*" ) unary )* ;
+    /* Binding power of each binary operator, indexed by TokenType ordinal.
+     Zero means the token is not a binary operator. Higher binds tighter:
+     or < and < equality < comparison < term < factor. */
+    private static final int[] PRECEDENCE = new int[TokenType.values().length];
+
+    static {
+        PRECEDENCE[OR.ordinal()] = 1;
+        PRECEDENCE[AND.ordinal()] = 2;
+        PRECEDENCE[BANG_EQUAL.ordinal()] = 3;
+        PRECEDENCE[EQUAL_EQUAL.ordinal()] = 3;
+        PRECEDENCE[GREATER.ordinal()] = 4;
+        PRECEDENCE[GREATER_EQUAL.ordinal()] = 4;
+        PRECEDENCE[LESS.ordinal()] = 4;
+        PRECEDENCE[LESS_EQUAL.ordinal()] = 4;
+        PRECEDENCE[MINUS.ordinal()] = 5;
+        PRECEDENCE[PLUS.ordinal()] = 5;
+        PRECEDENCE[SLASH.ordinal()] = 6;
+        PRECEDENCE[STAR.ordinal()] = 6;
+    }
+
+    private Expr binary(int precedence) {
+        /* Parses every binary level from 'precedence' upwards in one loop
+         (precedence climbing), giving the same left-associative trees as
+         one method per grammar rule:
+         logic_or       → logic_and ( "or" logic_and )* ;
+         logic_and      → equality ( "and" equality )* ;
+         equality       → comparison ( ( "!=" | "==" ) comparison )* ;
+         comparison     → term ( ( ">" | ">=" | "<" | "<=" ) term )* ;
+         term           → factor ( ( "-" | "+" ) factor )* ;
+         factor         → unary ( ( "/" | "*" ) unary )* ; */
         Expr expr = unary();
 
-        while (match(SLASH, STAR)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
+        while (true) {
+            TokenType type = peek().type;
+            int operatorPrecedence = PRECEDENCE[type.ordinal()];
+            if (operatorPrecedence == 0 || operatorPrecedence < precedence) break;
+
+            Token operator = advance();
+            Expr right = binary(operatorPrecedence + 1);
+            if (type == OR || type == AND) {
+                expr = new Expr.Logical(expr, operator, right);
+            } else {
+                expr = new Expr.Binary(expr, operator, right);
+            }
         }
 
         return expr;
@@ -335,8 +439,8 @@ class Parser {
 
     private Expr unary() {
         // unary          → ( "!" | "-" ) unary | primary ;
-        if (match(BANG, MINUS)) {
-            Token operator = previous();
+        if (check(BANG) || check(MINUS)) {
+            Token operator = advance();
             Expr right = unary();
             return new Expr.Unary(operator, right);
         }
@@ -385,21 +489,24 @@ class Parser {
         if (match(TRUE)) return new Expr.Literal(true);
         if (match(NIL)) return new Expr.Literal(null); 
         
-        if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal);
+        if (check(NUMBER) || check(STRING)) {
+            return new Expr.Literal(advance().literal);
         }
 
         if (match(SUPER)) {
             Token keyword = previous();
             consume(DOT, "Expect '.' after 'super'.");
             Token method = consume(IDENTIFIER, "Expect superclass method name.");
-            return new Expr.Super(keyword, method);
+            return resolve(new Expr.Super(keyword, method));
         }
 
-        if (match(THIS)) return new Expr.This(previous());
+        if (match(THIS)) return resolve(new Expr.This(previous()));
 
         if (match(IDENTIFIER)) {
-            return new Expr.Variable(previous());
+            Expr.Variable variable = new Expr.Variable(previous());
+            // An assignment target is resolved as part of the assignment.
+            if (check(EQUAL)) return variable;
+            return resolve(variable);
         }
 
         if (match(LEFT_PAREN)) {
@@ -413,17 +520,22 @@ class Parser {
         throw error(peek(), "Expect expression.");
     }
 
-    private boolean match(TokenType... types) {
-        /* Checks if current token matches those in list provided.
+    private Expr resolve(Expr expr) {
+        // Resolves a name as soon as it is parsed, in one-pass mode.
+        if (resolver != null) expr.accept(resolver);
+        return expr;
+    }
+
+    private boolean match(TokenType type) {
+        /* Checks if current token matches the type provided.
          If there is a match then consumes the token and returns true.
-         Otherwise false and token not consumed. */
-        for (TokenType type : types) {
-            if (check(type)) {
-                advance();
-                return true;
-            }
+         Otherwise false and token not consumed. Takes a single type so
+         no varargs array is allocated per call. */
+        if (check(type)) {
+            advance();
+            return true;
         }
-        
+
         return false;
     }
 
@@ -483,6 +595,7 @@ class Parser {
                 case WHILE:
                 case PRINT:
                 case RETURN:                    
+                case YIELD:
                     return;
             }
 
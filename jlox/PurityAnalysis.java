@@ -0,0 +1,190 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class PurityAnalysis implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    /* Checks whether a function body could be cached by its arguments
+     (-Djlox.memo=N). It may compute with its parameters and own locals
+     and call functions by global name, and nothing else: no printing, no
+     properties, no reading or writing globals or captured variables, no
+     nested functions, classes or yields. The global names it calls are
+     listed in 'callees'; Memo checks what they hold. */
+    private boolean pure = true;
+    final List<Token> callees = new ArrayList<>();
+
+    static PurityAnalysis analyze(List<Stmt> body) {
+        PurityAnalysis analysis = new PurityAnalysis();
+        for (Stmt statement : body) analysis.check(statement);
+        return analysis;
+    }
+
+    boolean isPure() {
+        return pure;
+    }
+
+    private void check(Stmt stmt) {
+        if (pure && stmt != null) stmt.accept(this);
+    }
+
+    private void check(Expr expr) {
+        if (pure && expr != null) expr.accept(this);
+    }
+
+    private static boolean isOwnLocal(Slot slot) {
+        return slot != null && !slot.upvalue;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        if (!isOwnLocal(expr.slot)) pure = false;
+        check(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        check(expr.left);
+        check(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        // Only a global name can be checked for what it calls.
+        if (expr.callee.kind == Expr.VARIABLE && ((Expr.Variable)expr.callee).slot == null) {
+            callees.add(((Expr.Variable)expr.callee).name);
+        } else {
+            pure = false;
+        }
+        for (Expr argument : expr.arguments) check(argument);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        pure = false;
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        check(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        check(expr.left);
+        check(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        pure = false;
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        pure = false;
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        pure = false;
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        check(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        // Callees are handled by visitCallExpr(); any other global may change.
+        if (!isOwnLocal(expr.slot)) pure = false;
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        for (Stmt statement : stmt.statements) check(statement);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        pure = false;
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        check(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        check(stmt.initializer);
+        check(stmt.condition);
+        check(stmt.increment);
+        check(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        pure = false;
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        check(stmt.condition);
+        check(stmt.thenBranch);
+        check(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        pure = false;
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        check(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        check(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        check(stmt.condition);
+        check(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        pure = false;
+        return null;
+    }
+}
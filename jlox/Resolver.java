@@ -1,27 +1,118 @@
 package jlox;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    /* Locals of every open scope, innermost last, as parallel arrays of
+     symbol ID, frame slot and whether the initializer has been resolved.
+     'scopeStarts' holds the index of each open scope's first local. */
+    private int[] symbols = new int[16];
+    private Slot[] locals = new Slot[16];
+    private boolean[] defined = new boolean[16];
+    private int localCount = 0;
+    private int[] scopeStarts = new int[8];
+    private int scopeCount = 0;
+    // Each local name gets a small integer ID so lookups compare ints.
+    private final Map<String, Integer> symbolIds = new HashMap<>();
+    // Errors held back until parsing succeeds, when driven by the Parser.
+    private List<Runnable> deferredErrors;
     private FunctionType currentFunction = FunctionType.NONE;
+    private FunctionScope currentScope;
+    // The counted loop whose body is being resolved, if any.
+    private CountedLoop currentLoop;
 
     Resolver(Interpreter interpreter) {
+        this(interpreter, new FrameLayout());
+
+        // Top-level block scopes live in the script's own frame.
+        interpreter.resolveScript(currentScope.layout);
+    }
+
+    private Resolver(Interpreter interpreter, FrameLayout script) {
         this.interpreter = interpreter;
+        currentScope = new FunctionScope(null, script, 0, FunctionType.NONE, null);
+    }
+
+    static void resolveBody(Interpreter interpreter, Stmt.Function function,
+                            List<Stmt> statements) {
+        /* Resolves a function body loaded on first call. Lazy functions are
+         declared at the top level, so the only enclosing local they can see
+         is a method's 'super', which was captured when they were declared. */
+        Resolver resolver = new Resolver(interpreter, new FrameLayout());
+        resolver.resolveLoaded(function, statements);
+    }
+
+    private void resolveLoaded(Stmt.Function function, List<Stmt> statements) {
+        LazyBody body = (LazyBody)function.body;
+        FrameLayout layout = body.layout;
+
+        if (body.superclass != null) {
+            beginScope();
+            push("super", body.superclass, true);
+        }
+
+        currentFunction = FunctionType.FUNCTION;
+        if (body.method) {
+            currentClass = body.superclass != null ? ClassType.SUBCLASS : ClassType.CLASS;
+            currentFunction = body.initializer ? FunctionType.INITIALIZER : FunctionType.METHOD;
+        }
+
+        currentScope = new FunctionScope(currentScope, layout, localCount,
+            currentFunction, null);
+        if (body.superclass != null) {
+            currentScope.upvalues.put(body.superclass, body.superUpvalue);
+        }
+
+        // The receiver and parameters keep the slots they were given at declaration.
+        beginScope();
+        if (layout.receiver != null) push("this", layout.receiver, true);
+        for (int i = 0; i < function.params.size(); i++) {
+            push(function.params.get(i).lexeme, layout.params.get(i), true);
+        }
+        currentScope.next = localCount - scopeStarts[scopeCount - 1];
+
+        resolve(statements);
+        checkGenerator();
+    }
+
+    private static class FunctionScope {
+        /* Resolution state for the function being resolved. Locals from
+         'firstLocal' upwards belong to it; anything further out is reached
+         through an upvalue. */
+        final FunctionScope enclosing;
+        final FrameLayout layout;
+        final int firstLocal;
+        final Map<Slot, Slot> upvalues = new HashMap<>();
+        int next = 0;
+        // The first 'return' with a value, which a generator can't have.
+        Token valueReturn;
+        // What to restore once the function is done.
+        final FunctionType enclosingType;
+        final CountedLoop enclosingLoop;
+
+        FunctionScope(FunctionScope enclosing, FrameLayout layout, int firstLocal,
+                      FunctionType enclosingType, CountedLoop enclosingLoop) {
+            this.enclosing = enclosing;
+            this.layout = layout;
+            this.firstLocal = firstLocal;
+            this.enclosingType = enclosingType;
+            this.enclosingLoop = enclosingLoop;
+        }
     }
 
-    private enum FunctionType {
+    enum FunctionType {
         NONE,
         FUNCTION,
         INITIALIZER,
         METHOD,
     }
 
-    private enum ClassType {
+    enum ClassType {
         NONE,
         CLASS,
         SUBCLASS,
@@ -47,77 +138,90 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     private void resolveFunction(Stmt.Function function, FunctionType type) {
         // Creates scope for the fn body, binds variables, and resolves fn body.
-        FunctionType enclosingFunction = currentFunction;
-        currentFunction = type;
-
-        beginScope();
-        for (Token param : function.params) {
-            declare(param);
-            define(param);
+        beginFunction(type, function.params);
+        if (function.body instanceof LazyBody) {
+            deferBody((LazyBody)function.body);
+        } else {
+            resolve(function.body);
         }
-        resolve(function.body);
-        endScope();
-        currentFunction = enclosingFunction;
+        endFunction(function);
     }
 
-    private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
-    }
+    /* The steps below run between the children of a node. The tree walk
+     calls them from its visit methods; a Parser given this Resolver calls
+     them as it parses, so names are resolved in the same single pass and
+     report the same errors. */
 
-    private void endScope() {
-        scopes.pop();
+    void deferErrors() {
+        // Holds errors back so they are only reported if the parse succeeds.
+        deferredErrors = new ArrayList<>();
     }
 
-    private void declare(Token name) {
-        /* Adds variable to innermost scope. Boolean value denotes whether
-         * finished resolving the variable's initializer expression.
-         */
-
-        if (scopes.isEmpty()) return;
-
-        Map<String, Boolean> scope = scopes.peek();
+    void reportErrors() {
+        for (Runnable error : deferredErrors) error.run();
+        deferredErrors.clear();
+    }
 
-        // Catch when user tries to declare existing variable.
-        if (scope.containsKey(name.lexeme)) {
-            Lox.error(name, "Already a variable with this name in this scope.");
+    private void error(Token token, String message) {
+        if (deferredErrors != null) {
+            deferredErrors.add(() -> Lox.error(token, message));
+        } else {
+            Lox.error(token, message);
         }
-        scope.put(name.lexeme, false);
     }
 
-    private void define(Token name) {
-        // Sets variable's value in scope map to 'true' after it's initializer has been resolved.
-        if (scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
+    void beginFunction(FunctionType type, List<Token> params) {
+        FrameLayout layout = new FrameLayout();
+        currentScope = new FunctionScope(currentScope, layout, localCount,
+            currentFunction, currentLoop);
+        currentFunction = type;
+        currentLoop = null;
+
+        beginScope();
+        if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+            // Methods receive 'this' in their own frame.
+            layout.receiver = declareKeyword("this");
+        }
+        for (Token param : params) {
+            layout.params.add(declare(param));
+            define(param);
+        }
     }
 
-    private void resolveLocal(Expr expr, Token name) {
-        // Starts at innermost scope and works outwards, checking each map for a matching name.
-        for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-            }
+    void deferBody(LazyBody body) {
+        // Keep what resolving the body will need once it is loaded.
+        FrameLayout layout = currentScope.layout;
+        body.layout = layout;
+        body.method = layout.receiver != null;
+        body.initializer = currentFunction == FunctionType.INITIALIZER;
+        if (currentClass == ClassType.SUBCLASS) {
+            body.superclass = declaration("super");
+            body.superUpvalue = resolveLocal("super");
         }
     }
 
-    @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        // Begins scope, traverses bloack of statments, then discards the scope.
-        beginScope();
-        resolve(stmt.statements);
+    void endFunction(Stmt.Function function) {
+        // 'function' is null if its body failed to parse.
         endScope();
-        return null;
+        checkGenerator();
+
+        FrameLayout layout = currentScope.layout;
+        currentFunction = currentScope.enclosingType;
+        currentLoop = currentScope.enclosingLoop;
+        currentScope = currentScope.enclosing;
+        if (function != null) interpreter.resolve(function, layout);
     }
 
-    @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
+    ClassType beginClass(Stmt.Class stmt) {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
-        declare(stmt.name);
+        Slot slot = declare(stmt.name);
         define(stmt.name);
+        declared(stmt, slot);
 
         if(stmt.superclass != null &&
             stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
-                Lox.error(stmt.superclass.name, "A class can't inherit from itself.");
+                error(stmt.superclass.name, "A class can't inherit from itself.");
             }
 
         if (stmt.superclass != null) {
@@ -126,13 +230,226 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
 
         if (stmt.superclass != null) {
+            // Methods capture 'super' from a scope wrapped around the class body.
             beginScope();
-            scopes.peek().put("super", true);
+            interpreter.resolveSuperclass(stmt, declareKeyword("super"));
+        }
+        return enclosingClass;
+    }
+
+    void endClass(Stmt.Class stmt, ClassType enclosingClass) {
+        if (stmt.superclass != null) endScope();
+        currentClass = enclosingClass;
+    }
+
+    CountedLoop beginLoop(Stmt initializer, Expr condition, Expr increment) {
+        /* Called once the loop clauses are resolved. Returns the enclosing
+         loop. A loop that isn't counted leaves the enclosing one current, so
+         its body's uses of an outer counter are still seen. */
+        CountedLoop enclosingLoop = currentLoop;
+        CountedLoop loop = countedLoop(initializer, condition, increment);
+        if (loop != null) {
+            loop.enclosing = enclosingLoop;
+            currentLoop = loop;
+        }
+        return enclosingLoop;
+    }
+
+    void endLoop(Stmt.For stmt, CountedLoop enclosingLoop) {
+        // A counter that a closure captures must stay a real variable.
+        if (stmt != null && currentLoop != enclosingLoop && !currentLoop.counter.captured) {
+            interpreter.resolve(stmt, currentLoop);
+        }
+        currentLoop = enclosingLoop;
+    }
+
+    void checkReturn(Token keyword, boolean hasValue) {
+        if (currentFunction == FunctionType.NONE) {
+            error(keyword, "Can't return from top-level code.");
+        }
+        if (hasValue && currentFunction == FunctionType.INITIALIZER) {
+            error(keyword, "Can't return a value from an initializer");
+        }
+        if (hasValue && currentScope.valueReturn == null) {
+            currentScope.valueReturn = keyword;
+        }
+    }
+
+    void checkYield(Token keyword) {
+        // A 'yield' anywhere in its body makes a function a generator.
+        if (currentFunction == FunctionType.NONE) {
+            error(keyword, "Can't yield from top-level code.");
+        } else if (currentFunction == FunctionType.INITIALIZER) {
+            error(keyword, "Can't yield from an initializer.");
+        } else {
+            currentScope.layout.generator = true;
+        }
+    }
+
+    private void checkGenerator() {
+        // Only known once the whole body is resolved, as the yield may come last.
+        if (currentScope.layout.generator && currentScope.valueReturn != null) {
+            error(currentScope.valueReturn, "Can't return a value from a generator.");
+        }
+    }
+
+    void returned(Stmt.Return stmt) {
+        if (stmt.value instanceof Expr.Call &&
+            currentFunction != FunctionType.NONE) {
+            interpreter.resolveTailCall(stmt);
+        }
+    }
+
+    void declared(Stmt declaration, Slot slot) {
+        // Records where a local declaration's value lives. Globals have no slot.
+        if (slot != null) interpreter.resolve(declaration, slot);
+    }
+
+    void assign(Expr.Assign expr) {
+        // The target of an assignment, after its value.
+        resolveLocal(expr, expr.name);
+    }
+
+    void beginScope() {
+        if (scopeCount == scopeStarts.length) {
+            scopeStarts = Arrays.copyOf(scopeStarts, scopeCount * 2);
+        }
+        scopeStarts[scopeCount++] = localCount;
+    }
+
+    void endScope() {
+        // The scope's slots can be reused by the next sibling scope.
+        int start = scopeStarts[--scopeCount];
+        currentScope.next -= localCount - start;
+        Arrays.fill(locals, start, localCount, null);
+        localCount = start;
+    }
+
+    Slot declare(Token name) {
+        /* Adds variable to innermost scope, not yet defined until its
+         * initializer expression has been resolved.
+         * Returns the variable's frame slot, or null for a global.
+         */
+
+        if (scopeCount == 0) return null;
+
+        // Catch when user tries to declare existing variable.
+        if (find(name.lexeme, scopeStarts[scopeCount - 1]) >= 0) {
+            error(name, "Already a variable with this name in this scope.");
+        }
+        return push(name.lexeme, allocate(), false);
+    }
+
+    private Slot declareKeyword(String keyword) {
+        // Declares 'this' or 'super', which are always initialized.
+        return push(keyword, allocate(), true);
+    }
+
+    private Slot allocate() {
+        // Gives a new local the next free slot in the current frame.
+        Slot slot = new Slot(currentScope.next++, false);
+        currentScope.layout.size = Math.max(currentScope.layout.size, currentScope.next);
+        return slot;
+    }
+
+    private Slot push(String name, Slot slot, boolean isDefined) {
+        // Appends a local to the innermost scope.
+        if (localCount == symbols.length) {
+            symbols = Arrays.copyOf(symbols, localCount * 2);
+            locals = Arrays.copyOf(locals, localCount * 2);
+            defined = Arrays.copyOf(defined, localCount * 2);
+        }
+
+        Integer id = symbolIds.get(name);
+        if (id == null) {
+            id = symbolIds.size();
+            symbolIds.put(name, id);
+        }
+        symbols[localCount] = id;
+        locals[localCount] = slot;
+        defined[localCount] = isDefined;
+        localCount++;
+        return slot;
+    }
+
+    private int find(String name, int from) {
+        /* Index of the innermost local with this name at or above 'from',
+         or -1. A name never declared has no ID, so globals cost one lookup. */
+        Integer id = symbolIds.get(name);
+        if (id == null) return -1;
+
+        for (int i = localCount - 1; i >= from; i--) {
+            if (symbols[i] == id) return i;
+        }
+        return -1;
+    }
+
+    void define(Token name) {
+        // Marks the variable defined after its initializer has been resolved.
+        if (scopeCount == 0) return;
+        int local = find(name.lexeme, scopeStarts[scopeCount - 1]);
+        if (local >= 0) defined[local] = true;
+    }
+
+    private void resolveLocal(Expr expr, Token name) {
+        Slot slot = resolveLocal(name.lexeme);
+        if (slot != null) interpreter.resolve(expr, slot);
+
+        // Note how the bodies of the counted loops around it use their counters.
+        for (CountedLoop loop = currentLoop; loop != null; loop = loop.enclosing) {
+            if (slot != loop.counter) continue;
+            if (expr instanceof Expr.Assign) {
+                loop.bodyWrites = true;
+            } else {
+                loop.bodyReads = true;
+            }
+        }
+    }
+
+    private Slot resolveLocal(String name) {
+        // Starts at innermost scope and works outwards, stopping at the first matching name.
+        int local = find(name, 0);
+        if (local >= 0) return capture(currentScope, local, locals[local]);
+
+        // Not found. Assume it is global.
+        return null;
+    }
+
+    private Slot declaration(String name) {
+        // The innermost declaration of a name, as seen from its own function.
+        int local = find(name, 0);
+        return local >= 0 ? locals[local] : null;
+    }
+
+    private Slot capture(FunctionScope function, int local, Slot slot) {
+        /* Returns how 'function' reaches the local at the given index:
+         directly if it is one of its own, otherwise through an upvalue that
+         copies the enclosing function's cell when the closure is created. */
+        if (local >= function.firstLocal) return slot;
+
+        slot.captured = true;
+        Slot outer = capture(function.enclosing, local, slot);
+        Slot upvalue = function.upvalues.get(outer);
+        if (upvalue == null) {
+            upvalue = new Slot(function.layout.captures.size(), true);
+            function.layout.captures.add(outer);
+            function.upvalues.put(outer, upvalue);
         }
+        return upvalue;
+    }
 
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        // Begins scope, traverses bloack of statments, then discards the scope.
         beginScope();
-        scopes.peek().put("this", true);
+        resolve(stmt.statements);
+        endScope();
+        return null;
+    }
 
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        ClassType enclosingClass = beginClass(stmt);
         for (Stmt.Function method : stmt.methods) {
             FunctionType declaration = FunctionType.METHOD;
             if (method.name.lexeme.equals("init")) {
@@ -140,12 +457,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             }
             resolveFunction(method, declaration);
         }
-
-        endScope();
-
-        if (stmt.superclass != null) endScope();
-
-        currentClass = enclosingClass;
+        endClass(stmt, enclosingClass);
         return null;
     }
 
@@ -155,11 +467,109 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        // The loop variable is scoped to the loop.
+        beginScope();
+        if (stmt.initializer != null) resolve(stmt.initializer);
+        if (stmt.condition != null) resolve(stmt.condition);
+        if (stmt.increment != null) resolve(stmt.increment);
+
+        CountedLoop enclosingLoop =
+            beginLoop(stmt.initializer, stmt.condition, stmt.increment);
+        resolve(stmt.body);
+        endLoop(stmt, enclosingLoop);
+        endScope();
+        return null;
+    }
+
+    private CountedLoop countedLoop(Stmt initializer, Expr loopCondition, Expr loopIncrement) {
+        // Matches 'for (var i = a; i < n; i = i + c)' and its <=, >, >= and '-' variants.
+        if (!(initializer instanceof Stmt.Var) ||
+            !(loopCondition instanceof Expr.Binary) ||
+            !(loopIncrement instanceof Expr.Assign)) {
+            return null;
+        }
+
+        Token name = ((Stmt.Var)initializer).name;
+        int local = find(name.lexeme, scopeStarts[scopeCount - 1]);
+        if (local < 0 || ((Stmt.Var)initializer).initializer == null) return null;
+        Slot counter = locals[local];
+
+        Expr.Binary condition = (Expr.Binary)loopCondition;
+        switch (condition.operator.type) {
+            case LESS: case LESS_EQUAL: case GREATER: case GREATER_EQUAL: break;
+            default: return null;
+        }
+        if (!isVariable(condition.left, name)) return null;
+        // The fast path compares against a counter the limit wouldn't see.
+        if (mentions(condition.right, name)) return null;
+
+        Expr.Assign increment = (Expr.Assign)loopIncrement;
+        if (!increment.name.lexeme.equals(name.lexeme) ||
+            !(increment.value instanceof Expr.Binary)) {
+            return null;
+        }
+        Expr.Binary next = (Expr.Binary)increment.value;
+        if (!isVariable(next.left, name) ||
+            !(next.right instanceof Expr.Literal) ||
+            !(((Expr.Literal)next.right).value instanceof Double)) {
+            return null;
+        }
+
+        double step = (double)((Expr.Literal)next.right).value;
+        switch (next.operator.type) {
+            case PLUS: break;
+            case MINUS: step = -step; break;
+            default: return null;
+        }
+        return new CountedLoop(counter, condition.operator.type, step);
+    }
+
+    private static boolean mentions(Expr expr, Token name) {
+        // Whether the expression reads or assigns the variable (Lox has no nested scopes in expressions).
+        if (expr instanceof Expr.Variable) {
+            return ((Expr.Variable)expr).name.lexeme.equals(name.lexeme);
+        } else if (expr instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign)expr;
+            return assign.name.lexeme.equals(name.lexeme) || mentions(assign.value, name);
+        } else if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            return mentions(binary.left, name) || mentions(binary.right, name);
+        } else if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical)expr;
+            return mentions(logical.left, name) || mentions(logical.right, name);
+        } else if (expr instanceof Expr.Unary) {
+            return mentions(((Expr.Unary)expr).right, name);
+        } else if (expr instanceof Expr.Grouping) {
+            return mentions(((Expr.Grouping)expr).expression, name);
+        } else if (expr instanceof Expr.Call) {
+            Expr.Call call = (Expr.Call)expr;
+            if (mentions(call.callee, name)) return true;
+            for (Expr argument : call.arguments) {
+                if (mentions(argument, name)) return true;
+            }
+            return false;
+        } else if (expr instanceof Expr.Get) {
+            return mentions(((Expr.Get)expr).object, name);
+        } else if (expr instanceof Expr.Set) {
+            Expr.Set set = (Expr.Set)expr;
+            return mentions(set.object, name) || mentions(set.value, name);
+        }
+        return false;
+    }
+
+    private static boolean isVariable(Expr expr, Token name) {
+        return expr instanceof Expr.Variable &&
+            ((Expr.Variable)expr).name.lexeme.equals(name.lexeme);
+    }
+
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
         // Define fn name in current scope then resolve function.
-        declare(stmt.name);
+        Slot slot = declare(stmt.name);
         define(stmt.name);
+        declared(stmt, slot);
 
         resolveFunction(stmt, FunctionType.FUNCTION);
         return null;
@@ -181,15 +591,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
-        if (currentFunction == FunctionType.NONE) {
-            Lox.error(stmt.keyword, "Can't return from top-level code.");
-        }
-        if (stmt.value != null) {
-            if (currentFunction == FunctionType.INITIALIZER) {
-                Lox.error(stmt.keyword, "Can't return a value from an initializer");
-            }
-            resolve(stmt.value);
-        }
+        checkReturn(stmt.keyword, stmt.value != null);
+        if (stmt.value != null) resolve(stmt.value);
+        returned(stmt);
 
         return null;
     }
@@ -201,10 +605,17 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        checkYield(stmt.keyword);
+        if (stmt.value != null) resolve(stmt.value);
+        return null;
+    }
+
     @Override
     public Void visitBinaryExpr(Expr.Binary expr) {
-        resolve(expr.right);
         resolve(expr.left);
+        resolve(expr.right);
         return null;
     }
 
@@ -226,11 +637,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        Slot slot = declare(stmt.name);
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
         define(stmt.name);
+        declared(stmt, slot);
         return null;
     }
 
@@ -254,26 +666,30 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitSetExpr(Expr.Set expr) {
-        resolve(expr.value);
         resolve(expr.object);
+        resolve(expr.value);
         return null;
     }
 
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Can't use 'super' outside of a class.");
+            error(expr.keyword, "Can't use 'super' outside of a class.");
         } else if (currentClass != ClassType.SUBCLASS) {
-            Lox.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
+            error(expr.keyword, "Can't use 'super' in a class with no superclass.");
         }
         resolveLocal(expr, expr.keyword);
+
+        // The method's 'this' is needed to bind the superclass method.
+        Slot receiver = resolveLocal("this");
+        if (receiver != null) interpreter.resolveReceiver(expr, receiver);
         return null;
     }
 
     @Override
     public Void visitThisExpr(Expr.This expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Can't use 'this' outside of a class.");
+            error(expr.keyword, "Can't use 'this' outside of a class.");
             return null;
         }
 
@@ -289,16 +705,18 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        assign(expr);
         return null;
     }
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (!scopes.isEmpty() &&
-            scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-                Lox.error(expr.name, "Can't read local variable in its own initializer");
+        if (scopeCount > 0) {
+            int local = find(expr.name.lexeme, scopeStarts[scopeCount - 1]);
+            if (local >= 0 && !defined[local]) {
+                error(expr.name, "Can't read local variable in its own initializer");
             }
+        }
 
             resolveLocal(expr, expr.name);
             return null;
@@ -0,0 +1,77 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+class ScalarObject {
+    /* A local that EscapeAnalysis found is only ever used as 'p.f' or
+     'p.f = v', so its instance can live as frame slots, one per field
+     name. The declaration checks the class it calls each time it runs: if
+     the class is one this can stand in for, the fields go to their slots
+     and the variable's own slot holds this object as a marker; if not, a
+     real instance is made and the property nodes take their usual path. */
+
+    // Held by a field slot whose field hasn't been set.
+    static final Object ABSENT = new Object();
+
+    // Field name to the frame slot holding it.
+    final Map<String, Integer> fields = new LinkedHashMap<>();
+
+    // The class last checked, and what running its initializer comes down to.
+    private LoxClass klass;
+    private boolean replaceable;
+    /* The field slots in order, and the initializer parameter each ends
+     up holding, or -1 if the initializer doesn't set it. */
+    int[] slots;
+    int[] params;
+
+    boolean accepts(Interpreter interpreter, Object callee) {
+        if (callee != klass) {
+            klass = callee instanceof LoxClass ? (LoxClass)callee : null;
+            replaceable = klass != null && check(interpreter, klass);
+        }
+        return replaceable;
+    }
+
+    private boolean check(Interpreter interpreter, LoxClass klass) {
+        /* A method with a field's name would be found instead of a missing
+         field, and bind the instance. The initializer may only copy its
+         parameters into fields of 'this'; anything else could let the
+         instance escape or have effects to keep. */
+        for (String name : fields.keySet()) {
+            if (klass.findMethod(name) != null) return false;
+        }
+
+        List<String> names = new ArrayList<>(fields.keySet());
+        int[] params = new int[names.size()];
+        Arrays.fill(params, -1);
+
+        LoxFunction initializer = klass.findMethod("init");
+        if (initializer != null) {
+            Stmt.Function declaration = initializer.declaration;
+            if (declaration.body instanceof LazyBody) interpreter.load(declaration);
+            List<Slot> layoutParams = initializer.layout.params;
+            for (Stmt statement : declaration.body) {
+                if (statement.kind != Stmt.EXPRESSION) return false;
+                Expr expression = ((Stmt.Expression)statement).expression;
+                if (expression.kind != Expr.SET) return false;
+
+                Expr.Set set = (Expr.Set)expression;
+                if (set.object.kind != Expr.THIS || set.value.kind != Expr.VARIABLE) return false;
+                int param = layoutParams.indexOf(((Expr.Variable)set.value).slot);
+                if (param < 0) return false;
+
+                // Fields the variable never reads can't be seen.
+                int field = names.indexOf(set.name.lexeme);
+                if (field >= 0) params[field] = param;
+            }
+        }
+
+        this.params = params;
+        slots = fields.values().stream().mapToInt(Integer::intValue).toArray();
+        return true;
+    }
+}
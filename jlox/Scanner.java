@@ -28,6 +28,7 @@ class Scanner {
         keywords.put("true",   TRUE);
         keywords.put("var",    VAR);
         keywords.put("while",  WHILE);
+        keywords.put("yield",  YIELD);
     }
 
     private final String source;
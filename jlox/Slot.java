@@ -0,0 +1,16 @@
+package jlox;
+
+class Slot {
+    /* Where the Resolver placed a local variable. A frame slot is indexed
+     from the base of the current call frame; an upvalue slot indexes the
+     running closure's captured cells. Locals that some inner function
+     captures are 'captured' and hold a Cell in their frame slot. */
+    final int index;
+    final boolean upvalue;
+    boolean captured = false;
+
+    Slot(int index, boolean upvalue) {
+        this.index = index;
+        this.upvalue = upvalue;
+    }
+}
@@ -2,21 +2,53 @@ package jlox;
 
 import java.util.List;
 
-abstract class Stmt {
+abstract sealed class Stmt permits
+        Stmt.Block,
+        Stmt.Class,
+        Stmt.Expression,
+        Stmt.For,
+        Stmt.Function,
+        Stmt.If,
+        Stmt.Print,
+        Stmt.Return,
+        Stmt.Var,
+        Stmt.While,
+        Stmt.Yield {
     interface Visitor<R> {
         R visitBlockStmt(Block stmt);
         R visitClassStmt(Class stmt);
         R visitExpressionStmt(Expression stmt);
+        R visitForStmt(For stmt);
         R visitFunctionStmt(Function stmt);
         R visitIfStmt(If stmt);
         R visitPrintStmt(Print stmt);
         R visitReturnStmt(Return stmt);
         R visitVarStmt(Var stmt);
         R visitWhileStmt(While stmt);
+        R visitYieldStmt(Yield stmt);
     }
 
-    static class Block extends Stmt {
+    static final int BLOCK = 0;
+    static final int CLASS = 1;
+    static final int EXPRESSION = 2;
+    static final int FOR = 3;
+    static final int FUNCTION = 4;
+    static final int IF = 5;
+    static final int PRINT = 6;
+    static final int RETURN = 7;
+    static final int VAR = 8;
+    static final int WHILE = 9;
+    static final int YIELD = 10;
+
+    final int kind;
+
+    Stmt(int kind) {
+        this.kind = kind;
+    }
+
+    static final class Block extends Stmt {
         Block(List<Stmt> statements) {
+            super(BLOCK);
             this.statements = statements;
         }
 
@@ -28,8 +60,9 @@ abstract class Stmt {
         final List<Stmt> statements;
     }
 
-    static class Class extends Stmt {
+    static final class Class extends Stmt {
         Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods) {
+            super(CLASS);
             this.name = name;
             this.superclass = superclass;
             this.methods = methods;
@@ -45,8 +78,9 @@ abstract class Stmt {
         final List<Stmt.Function> methods;
     }
 
-    static class Expression extends Stmt {
+    static final class Expression extends Stmt {
         Expression(Expr expression) {
+            super(EXPRESSION);
             this.expression = expression;
         }
 
@@ -58,8 +92,31 @@ abstract class Stmt {
         final Expr expression;
     }
 
-    static class Function extends Stmt {
+    static final class For extends Stmt {
+        For(Token keyword, Stmt initializer, Expr condition, Expr increment, Stmt body) {
+            super(FOR);
+            this.keyword = keyword;
+            this.initializer = initializer;
+            this.condition = condition;
+            this.increment = increment;
+            this.body = body;
+        }
+
+        @Override
+        <R> R accept(Visitor <R> visitor) {
+            return visitor.visitForStmt(this);
+        }
+
+        final Token keyword;
+        final Stmt initializer;
+        final Expr condition;
+        final Expr increment;
+        final Stmt body;
+    }
+
+    static final class Function extends Stmt {
         Function(Token name, List<Token> params, List<Stmt> body) {
+            super(FUNCTION);
             this.name = name;
             this.params = params;
             this.body = body;
@@ -75,8 +132,9 @@ abstract class Stmt {
         final List<Stmt> body;
     }
 
-    static class If extends Stmt {
+    static final class If extends Stmt {
         If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
+            super(IF);
             this.condition = condition;
             this.thenBranch = thenBranch;
             this.elseBranch = elseBranch;
@@ -92,8 +150,9 @@ abstract class Stmt {
         final Stmt elseBranch;
     }
 
-    static class Print extends Stmt {
+    static final class Print extends Stmt {
         Print(Expr expression) {
+            super(PRINT);
             this.expression = expression;
         }
 
@@ -105,8 +164,9 @@ abstract class Stmt {
         final Expr expression;
     }
 
-    static class Return extends Stmt {
+    static final class Return extends Stmt {
         Return(Token keyword, Expr value) {
+            super(RETURN);
             this.keyword = keyword;
             this.value = value;
         }
@@ -120,8 +180,9 @@ abstract class Stmt {
         final Expr value;
     }
 
-    static class Var extends Stmt {
+    static final class Var extends Stmt {
         Var(Token name, Expr initializer) {
+            super(VAR);
             this.name = name;
             this.initializer = initializer;
         }
@@ -133,10 +194,13 @@ abstract class Stmt {
 
         final Token name;
         final Expr initializer;
+        ScalarObject scalar;
     }
 
-    static class While extends Stmt {
-        While(Expr condition, Stmt body) {
+    static final class While extends Stmt {
+        While(Token keyword, Expr condition, Stmt body) {
+            super(WHILE);
+            this.keyword = keyword;
             this.condition = condition;
             this.body = body;
         }
@@ -146,9 +210,26 @@ abstract class Stmt {
             return visitor.visitWhileStmt(this);
         }
 
+        final Token keyword;
         final Expr condition;
         final Stmt body;
     }
 
+    static final class Yield extends Stmt {
+        Yield(Token keyword, Expr value) {
+            super(YIELD);
+            this.keyword = keyword;
+            this.value = value;
+        }
+
+        @Override
+        <R> R accept(Visitor <R> visitor) {
+            return visitor.visitYieldStmt(this);
+        }
+
+        final Token keyword;
+        final Expr value;
+    }
+
     abstract <R> R accept(Visitor<R> visitor);
 }
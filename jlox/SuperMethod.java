@@ -0,0 +1,15 @@
+package jlox;
+
+class SuperMethod {
+    /* The method a 'super.m' expression found in one superclass, cached on
+     the node. Both halves are published together through one volatile
+     field, so a thread never sees a method paired with the wrong class. */
+    final LoxClass superclass;
+    // Null if the superclass has no such method.
+    final LoxFunction method;
+
+    SuperMethod(LoxClass superclass, LoxFunction method) {
+        this.superclass = superclass;
+        this.method = method;
+    }
+}
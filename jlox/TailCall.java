@@ -0,0 +1,18 @@
+package jlox;
+
+class TailCall extends RuntimeException {
+    /* Thrown by a return in tail position to hand the callee back to the
+     LoxFunction.call trampoline instead of nesting another call. One instance
+     is reused per interpreter, so a tail call allocates no exception. The
+     arguments are in 'a', 'b' and 'c', or all in 'arguments' if there are
+     more than three. */
+    LoxFunction function;
+    Object a;
+    Object b;
+    Object c;
+    Object[] arguments;
+
+    TailCall() {
+        super(null, null, false, false);
+    }
+}
@@ -6,39 +6,51 @@ import java.util.Arrays;
 import java.util.List;
 
 public class GenerateAst {
+    /* With --sealed the base class is sealed over final node classes, each
+     tagged with an int kind so callers can switch on it instead of going
+     through accept(). Fields after '|' are mutable and left out of the
+     constructor; the Resolver fills them in. */
+    private static boolean sealed = false;
+
     // Generates classes for the abstract syntax tree.
     public static void main(String[] args) throws IOException {
+        if (args.length == 2 && args[0].equals("--sealed")) {
+            sealed = true;
+            args = new String[] { args[1] };
+        }
         if (args.length != 1) {
-            System.err.println("Usage: generate_ast <output directory>");
+            System.err.println("Usage: generate_ast [--sealed] <output directory>");
             System.exit(64);
         }
         String outputDir = args[0];
         defineAst(outputDir, "Expr", Arrays.asList(
             // Each class of expression defined with a name and fields.
-            "Assign   : Token name, Expr value",
+            "Assign   : Token name, Expr value | Slot slot",
             "Binary   : Expr left, Token operator, Expr right",            
-            "Call     : Expr callee, Token paren, List<Expr> arguments",
-            "Get      : Expr object, Token name",
+            "Call     : Expr callee, Token paren, List<Expr> arguments | LoxCallSite site",
+            "Get      : Expr object, Token name | ScalarObject scalar, int field",
             "Grouping : Expr expression",
             "Literal  : Object value",
             "Logical  : Expr left, Token operator, Expr right",
-            "Set      : Expr object, Token name, Expr value",
-            "Super    : Token keyword, Token method",
-            "This     : Token keyword",
+            "Set      : Expr object, Token name, Expr value | ScalarObject scalar, int field",
+            "Super    : Token keyword, Token method | Slot slot, Slot receiver, volatile SuperMethod target",
+            "This     : Token keyword | Slot slot",
             "Unary    : Token operator, Expr right",
-            "Variable : Token name"
+            "Variable : Token name | Slot slot"
         ));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
             "Block       : List<Stmt> statements",
             "Class       : Token name, Expr.Variable superclass, List<Stmt.Function> methods",    
             "Expression  : Expr expression",
+            "For         : Token keyword, Stmt initializer, Expr condition, Expr increment, Stmt body",
             "Function    : Token name, List<Token> params, List<Stmt> body",
             "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
             "Print       : Expr expression",
             "Return     : Token keyword, Expr value",
-            "Var         : Token name, Expr initializer",
-            "While      : Expr condition, Stmt body"
+            "Var         : Token name, Expr initializer | ScalarObject scalar",
+            "While      : Token keyword, Expr condition, Stmt body",
+            "Yield      : Token keyword, Expr value"
         ));
     }
 
@@ -52,11 +64,22 @@ public class GenerateAst {
             writer.println();
             writer.println("import java.util.List;");
             writer.println();
-            writer.println("abstract class " + baseName + " {");
+            if (sealed) {
+                writer.println("abstract sealed class " + baseName + " permits");
+                for (int i = 0; i < types.size(); i++) {
+                    String className = types.get(i).split(":")[0].trim();
+                    writer.println("        " + baseName + "." + className +
+                        (i < types.size() - 1 ? "," : " {"));
+                }
+            } else {
+                writer.println("abstract class " + baseName + " {");
+            }
             
             defineVisitor(writer, baseName, types);
             writer.println();
 
+            if (sealed) defineKinds(writer, baseName, types);
+
             // The AST classes
             for (String type : types) {
                 String className = type.split(":")[0].trim();
@@ -71,6 +94,23 @@ public class GenerateAst {
             writer.close();
         }
     
+    private static void defineKinds(
+        // The kind tag of each node class and the field holding it.
+        PrintWriter writer, String baseName, List<String> types) {
+            for (int i = 0; i < types.size(); i++) {
+                String className = types.get(i).split(":")[0].trim();
+                writer.println("    static final int " + className.toUpperCase() +
+                    " = " + i + ";");
+            }
+            writer.println();
+            writer.println("    final int kind;");
+            writer.println();
+            writer.println("    " + baseName + "(int kind) {");
+            writer.println("        this.kind = kind;");
+            writer.println("    }");
+            writer.println();
+        }
+
     private static void defineVisitor(
         PrintWriter writer, String baseName, List<String> types) {
             writer.println("    interface Visitor<R> {");
@@ -88,11 +128,20 @@ public class GenerateAst {
         // Defines a type for the AST.
         PrintWriter writer, String baseName,
         String className, String fieldList) {
-            writer.println("    static class " + className + " extends " +
-                baseName + " {");
+            String mutableList = null;
+            if (fieldList.contains("|")) {
+                mutableList = fieldList.split("\\|")[1].trim();
+                fieldList = fieldList.split("\\|")[0].trim();
+            }
+
+            writer.println("    static " + (sealed ? "final " : "") + "class " +
+                className + " extends " + baseName + " {");
             
             // Constructor.
             writer.println("        " + className + "(" + fieldList + ") {");
+            if (sealed) {
+                writer.println("            super(" + className.toUpperCase() + ");");
+            }
 
             // Store parameters in fields.
             String[] fields = fieldList.split(", ");
@@ -116,6 +165,11 @@ public class GenerateAst {
             for (String field : fields) {
                 writer.println("        final " + field + ";");
             }
+            if (mutableList != null) {
+                for (String field : mutableList.split(", ")) {
+                    writer.println("        " + field + ";");
+                }
+            }
             
             writer.println("    }");
             writer.println();